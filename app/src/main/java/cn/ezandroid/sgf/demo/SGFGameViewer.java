@@ -7,7 +7,6 @@ import android.util.Pair;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
@@ -217,10 +216,10 @@ public class SGFGameViewer {
         }
         if (findMove) {
             String comment = commentToken != null ? commentToken.getComment() : "";
-            Iterator<Point> points = moveToken.getPoints();
-            if (points.hasNext()) {
-                Point point = points.next();
-                int position = (point.x - 1) + mBoardSize * (point.y - 1);
+            if (moveToken.getPointCount() > 0) {
+                int x = moveToken.getPointX(0) - 1;
+                int y = moveToken.getPointY(0) - 1;
+                int position = x + mBoardSize * y;
                 OpeningBook.Forecast forecast = new OpeningBook.Forecast((short) position, comment);
                 List<OpeningBook.Forecast> forecasts = mOpeningBook.get(hash);
                 if (forecasts != null) {
@@ -232,7 +231,7 @@ public class SGFGameViewer {
                 } else {
                     mOpeningBook.add(hash, forecast);
                 }
-                System.err.println(mOpeningBook.size() + ":" + hash + "->(" + (point.x - 1) + ", " + (point.y - 1) + ")" + moveToken + " " + comment);
+                System.err.println(mOpeningBook.size() + ":" + hash + "->(" + x + ", " + y + ")" + moveToken + " " + comment);
             }
         } else {
             while (trees.hasNext()) {
@@ -284,10 +283,9 @@ public class SGFGameViewer {
                 while (tokens.hasNext()) {
                     SGFToken token = tokens.next();
                     if (token instanceof MoveToken) {
-                        Iterator<Point> points = ((PlacementListToken) token).getPoints();
-                        while (points.hasNext()) {
-                            Point point = points.next();
-                            branchesPoints.add(point);
+                        PlacementListToken points = (PlacementListToken) token;
+                        for (int p = 0; p < points.getPointCount(); p++) {
+                            branchesPoints.add(new Point(points.getPointX(p), points.getPointY(p)));
                         }
                         break;
                     }
@@ -391,11 +389,10 @@ public class SGFGameViewer {
 
     private boolean undoToken(SGFToken token) {
         if (token instanceof PlacementListToken) {
-            Iterator<Point> points = ((PlacementListToken) token).getPoints();
-            while (points.hasNext()) {
-                Point point = points.next();
-                int x = point.x - 1;
-                int y = point.y - 1;
+            PlacementListToken points = (PlacementListToken) token;
+            for (int p = 0; p < points.getPointCount(); p++) {
+                int x = points.getPointX(p) - 1;
+                int y = points.getPointY(p) - 1;
                 int index = x + mBoardSize * y;
                 if (token instanceof MoveToken) {
                     Pair<Move, Chain> pair = mGame.undo();
@@ -500,11 +497,10 @@ public class SGFGameViewer {
 
     private boolean redoToken(SGFToken token) {
         if (token instanceof PlacementListToken) {
-            Iterator<Point> points = ((PlacementListToken) token).getPoints();
-            while (points.hasNext()) {
-                Point point = points.next();
-                int x = point.x - 1;
-                int y = point.y - 1;
+            PlacementListToken points = (PlacementListToken) token;
+            for (int p = 0; p < points.getPointCount(); p++) {
+                int x = points.getPointX(p) - 1;
+                int y = points.getPointY(p) - 1;
                 int index = x + mBoardSize * y;
                 if (token instanceof MoveToken) {
                     Move move = mGame.redo();
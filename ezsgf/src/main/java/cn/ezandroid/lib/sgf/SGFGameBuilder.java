@@ -0,0 +1,82 @@
+package cn.ezandroid.lib.sgf;
+
+import java.util.ArrayList;
+
+import cn.ezandroid.lib.sgf.tokens.InfoToken;
+import cn.ezandroid.lib.sgf.tokens.SGFToken;
+
+/**
+ * The SGFHandler SGFLoader.load() uses, builds an SGFGame from the events.
+ * <p>
+ * Tokens that are InfoTokens go to the game, all other tokens go to the leaf
+ * of their node.  Nodes without any such token don't produce a leaf.
+ */
+public final class SGFGameBuilder implements SGFHandler {
+
+    private final ArrayList<SGFTree> mTrees = new ArrayList<>();
+    private SGFTree mRootTree;
+    private SGFLeaf mLeaf;
+    private SGFGame mGame;
+
+    public SGFGameBuilder() {}
+
+    @Override
+    public void startTree() {
+        SGFTree tree = new SGFTree();
+        if (mTrees.isEmpty()) {
+            mRootTree = tree;
+            mGame = new SGFGame(tree);
+        } else {
+            mTrees.get(mTrees.size() - 1).addTree(tree);
+        }
+        mTrees.add(tree);
+        mLeaf = null;
+    }
+
+    @Override
+    public void endTree() {
+        mTrees.remove(mTrees.size() - 1).trimToSize();
+        mLeaf = null;
+    }
+
+    @Override
+    public void startNode() {
+        mLeaf = null;
+    }
+
+    @Override
+    public void property(SGFToken token) {
+        // Since we found a token that belongs to the "information"
+        // class, it gets a special place in habitat.
+        //
+        if (token instanceof InfoToken) {
+            mGame.addInfoToken((InfoToken) token);
+        } else if (mLeaf == null) {
+            mLeaf = new SGFLeaf(token);
+            mTrees.get(mTrees.size() - 1).addLeaf(mLeaf);
+        } else {
+            mLeaf.addToken(token);
+        }
+    }
+
+    /**
+     * Adds a leaf that was read by the loader itself, see SGFLoader.setLazy().
+     */
+    void addLeaf(SGFLeaf leaf) {
+        mTrees.get(mTrees.size() - 1).addLeaf(leaf);
+    }
+
+    /**
+     * Returns the game built so far, null if no tree was started yet.
+     */
+    public SGFGame getGame() {
+        return mGame;
+    }
+
+    /**
+     * Returns the tree of the whole collection, null if no tree was started yet.
+     */
+    public SGFTree getRootTree() {
+        return mRootTree;
+    }
+}
@@ -0,0 +1,38 @@
+package cn.ezandroid.lib.sgf;
+
+import cn.ezandroid.lib.sgf.tokens.SGFToken;
+
+/**
+ * Receives the content of an SGF file while SGFLoader.parse() reads it, in
+ * file order and without building a game tree first.
+ * <p>
+ * The outermost startTree/endTree pair stands for the whole collection, every
+ * '(' ... ')' inside of it is reported as a nested startTree/endTree pair.  A
+ * node starts with startNode and owns all following properties up to the next
+ * event of another kind.  Since nothing is kept by the loader, memory used
+ * while parsing only depends on the depth of the tree.
+ * <p>
+ * Any method may throw an SGFException to stop parsing.
+ */
+public interface SGFHandler {
+
+    /**
+     * A tree (variation) starts.
+     */
+    void startTree() throws SGFException;
+
+    /**
+     * The current tree ends, its parent becomes the current tree again.
+     */
+    void endTree() throws SGFException;
+
+    /**
+     * A node (leaf) of the current tree starts.
+     */
+    void startNode() throws SGFException;
+
+    /**
+     * A property of the current node, already parsed into its token.
+     */
+    void property(SGFToken token) throws SGFException;
+}
@@ -19,10 +19,13 @@
 
 package cn.ezandroid.lib.sgf;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
 import cn.ezandroid.lib.sgf.tokens.SGFToken;
 
@@ -33,12 +36,32 @@ import cn.ezandroid.lib.sgf.tokens.SGFToken;
  * was required to put everything associated with a move under one roof (but
  * this does not mean a move must always be associated with a leaf, that's
  * just what happens more often than not).
+ * <p>
+ * Since most leaves hold a single token, that token is kept in a field of its
+ * own; only leaves with more tokens have an array.
+ * <p>
+ * A leaf of a lazily loaded game (see SGFLoader.setLazy()) only knows where
+ * its properties are in the SGF data, its tokens are read on first use.  Any
+ * number of threads may read a loaded game, the first one to use a lazy leaf
+ * reads its tokens and the others wait for it.  Changing a game from several
+ * threads needs outside locking.
  */
 public final class SGFLeaf implements Serializable {
 
-    private static final long serialVersionUID = 42L;
+    private static final long serialVersionUID = 43L;
 
-    private LinkedList<SGFToken> mTokens = new LinkedList<>();
+    // The only token while there is at most one, null otherwise
+    private SGFToken mToken;
+    // All tokens once there are more than one
+    private SGFToken[] mTokens;
+    private int mTokenCount;
+
+    // Where the tokens are read from while the leaf has not been used yet.
+    // Cleared last, so seeing it null means the tokens are there.
+    private transient volatile SGFLeafSource mSource;
+    private transient int[] mOffsets;
+    // Why reading the tokens failed
+    private transient Exception mLoadError;
 
     /**
      * Creates a new SGFLeaf; use with caution.  All SGFLeaves must have
@@ -58,21 +81,86 @@ public final class SGFLeaf implements Serializable {
         addToken(token);
     }
 
+    /**
+     * Creates a lazily loaded SGFLeaf.
+     *
+     * @param source  - The SGF data the leaf was found in.
+     * @param offsets - The offsets of the leaf's properties in the data.
+     */
+    SGFLeaf(SGFLeafSource source, int[] offsets) {
+        mSource = source;
+        mOffsets = offsets;
+    }
+
+    /**
+     * Reads the tokens of a lazily loaded leaf.  A property that fails to
+     * parse, which would have made a normal load throw an SGFException, makes
+     * this and every later accessor of the leaf throw a RuntimeException.
+     */
+    private void load() {
+        if (mSource != null) {
+            readTokens();
+        }
+        if (mLoadError != null) {
+            throw new RuntimeException("Couldn't read the tokens of a lazily loaded leaf", mLoadError);
+        }
+    }
+
+    private synchronized void readTokens() {
+        SGFLeafSource source = mSource;
+        if (source == null) {
+            // Another thread got here first
+            return;
+        }
+        try {
+            SGFToken[] tokens = source.readTokens(mOffsets);
+            for (SGFToken token : tokens) {
+                insert(mTokenCount, token);
+            }
+        } catch (IOException | SGFException e) {
+            mLoadError = e;
+        } finally {
+            mOffsets = null;
+            mSource = null;
+        }
+    }
+
+    /**
+     * Tells whether reading the tokens of a lazily loaded leaf failed, reading
+     * them first if that has not happened yet.  The accessors of such a leaf
+     * throw a RuntimeException with this cause, so check here first to handle
+     * a broken leaf without catching.
+     *
+     * @return The SGFException or IOException, null if the leaf is fine.
+     */
+    public Exception getLoadError() {
+        if (mSource != null) {
+            readTokens();
+        }
+        return mLoadError;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        load();
+        out.defaultWriteObject();
+    }
+
     /**
      * Returns the tokens housed by this leaf.
      *
      * @return An enumeration of this leaf's tokens.
      */
     public Iterator<SGFToken> getTokens() {
-        return mTokens.iterator();
+        return new TokenIterator(0);
     }
 
     public ListIterator<SGFToken> getListTokens() {
-        return mTokens.listIterator();
+        return new TokenIterator(0);
     }
 
     public int getTokenCount() {
-        return mTokens.size();
+        load();
+        return mTokenCount;
     }
 
     /**
@@ -82,8 +170,10 @@ public final class SGFLeaf implements Serializable {
      * @param token - Information that must be added to the leaf.
      */
     public void addToken(SGFToken token) {
-        if (token != null)
-            mTokens.add(token);
+        if (token != null) {
+            load();
+            insert(mTokenCount, token);
+        }
     }
 
     /**
@@ -93,8 +183,150 @@ public final class SGFLeaf implements Serializable {
      * @param token - Information that must be removed from the leaf.
      */
     public void removeToken(SGFToken token) {
-        if (token != null)
-            mTokens.remove(token);
+        if (token != null) {
+            load();
+            for (int i = 0; i < mTokenCount; i++) {
+                if (token.equals(get(i))) {
+                    removeAt(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    private SGFToken get(int index) {
+        return mTokens == null ? mToken : mTokens[index];
     }
-}
 
+    private void set(int index, SGFToken token) {
+        if (mTokens == null) {
+            mToken = token;
+        } else {
+            mTokens[index] = token;
+        }
+    }
+
+    private void insert(int index, SGFToken token) {
+        if (mTokenCount == 0) {
+            mToken = token;
+        } else {
+            if (mTokens == null) {
+                mTokens = new SGFToken[]{mToken, null};
+                mToken = null;
+            } else if (mTokenCount == mTokens.length) {
+                // Leaves rarely get more than a few tokens, so grow one at a time at first
+                SGFToken[] tokens = new SGFToken[mTokenCount < 4 ? mTokenCount + 1 : mTokenCount + (mTokenCount >> 1)];
+                System.arraycopy(mTokens, 0, tokens, 0, mTokenCount);
+                mTokens = tokens;
+            }
+            System.arraycopy(mTokens, index, mTokens, index + 1, mTokenCount - index);
+            mTokens[index] = token;
+        }
+        mTokenCount++;
+    }
+
+    private void removeAt(int index) {
+        mTokenCount--;
+        if (mTokens == null) {
+            mToken = null;
+        } else {
+            System.arraycopy(mTokens, index + 1, mTokens, index, mTokenCount - index);
+            mTokens[mTokenCount] = null;
+            if (mTokenCount == 1) {
+                mToken = mTokens[0];
+                mTokens = null;
+            }
+        }
+    }
+
+    /**
+     * Iterates the tokens of the leaf, changes made through it go to the leaf.
+     */
+    private final class TokenIterator implements ListIterator<SGFToken> {
+
+        private int mCursor;
+        private int mLastReturned = -1;
+        private int mExpectedCount;
+
+        TokenIterator(int index) {
+            load();
+            mCursor = index;
+            mExpectedCount = mTokenCount;
+        }
+
+        private void checkCount() {
+            if (mExpectedCount != mTokenCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mCursor < mTokenCount;
+        }
+
+        @Override
+        public SGFToken next() {
+            checkCount();
+            if (mCursor >= mTokenCount) {
+                throw new NoSuchElementException();
+            }
+            mLastReturned = mCursor++;
+            return get(mLastReturned);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return mCursor > 0;
+        }
+
+        @Override
+        public SGFToken previous() {
+            checkCount();
+            if (mCursor <= 0) {
+                throw new NoSuchElementException();
+            }
+            mLastReturned = --mCursor;
+            return get(mLastReturned);
+        }
+
+        @Override
+        public int nextIndex() {
+            return mCursor;
+        }
+
+        @Override
+        public int previousIndex() {
+            return mCursor - 1;
+        }
+
+        @Override
+        public void remove() {
+            if (mLastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            checkCount();
+            removeAt(mLastReturned);
+            mCursor = mLastReturned;
+            mLastReturned = -1;
+            mExpectedCount = mTokenCount;
+        }
+
+        @Override
+        public void set(SGFToken token) {
+            if (mLastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            checkCount();
+            SGFLeaf.this.set(mLastReturned, token);
+        }
+
+        @Override
+        public void add(SGFToken token) {
+            checkCount();
+            insert(mCursor++, token);
+            mLastReturned = -1;
+            mExpectedCount = mTokenCount;
+        }
+    }
+}
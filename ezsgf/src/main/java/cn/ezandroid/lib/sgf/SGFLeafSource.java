@@ -0,0 +1,46 @@
+package cn.ezandroid.lib.sgf;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import cn.ezandroid.lib.sgf.tokens.SGFToken;
+
+/**
+ * The SGF data a lazily loaded game was read from.  Its leaves only keep the
+ * offsets of their properties and read the tokens from here when they are
+ * first asked for them.
+ */
+final class SGFLeafSource {
+
+    private final byte[] mData;
+    private final Charset mCharset;
+    // The tokens registered when the load started, later ones don't apply
+    private final SGFTokenTable mTokens;
+
+    SGFLeafSource(byte[] data, Charset charset, SGFTokenTable tokens) {
+        mData = data;
+        mCharset = charset;
+        mTokens = tokens;
+    }
+
+    /**
+     * Reads the tokens of the properties at the given offsets.  Like a normal
+     * load, a token that fails to parse fails the whole leaf.
+     */
+    SGFToken[] readTokens(int[] offsets) throws IOException, SGFException {
+        SGFLexer lexer = new SGFLexer(mData, 0, mData.length, mCharset);
+        SGFToken[] tokens = new SGFToken[offsets.length];
+        int count = 0;
+        for (int offset : offsets) {
+            lexer.seek(offset);
+            lexer.nextToken();
+
+            SGFToken token = SGFLoader.readToken(lexer, mTokens);
+            if (token != null) {
+                tokens[count++] = token;
+            }
+        }
+        return count == tokens.length ? tokens : Arrays.copyOf(tokens, count);
+    }
+}
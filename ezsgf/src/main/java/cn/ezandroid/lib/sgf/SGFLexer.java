@@ -0,0 +1,483 @@
+package cn.ezandroid.lib.sgf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A byte level SGF lexer.
+ * <p>
+ * Unlike StreamTokenizer this class works on raw bytes and knows the SGF
+ * grammar: outside of a property value only '(', ')', ';' and property
+ * identifiers are significant, inside a value everything up to the closing
+ * unescaped ']' belongs to the value.  Bytes are only decoded to Strings when
+ * a token asks for text, so moves and point lists never go through a decoder.
+ * <p>
+ * The charset must be ASCII compatible (see {@link #isSupported(Charset)}).
+ * For double byte charsets like GBK or Big5 the trail byte of a character is
+ * skipped, so a trail byte that happens to be '\' or ']' is never mistaken
+ * for SGF syntax.
+ */
+public final class SGFLexer {
+
+    public static final int TT_EOF = -1;
+    public static final int TT_PROPERTY = -3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_KEY_LENGTH = 12;
+
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+    private static final boolean[] SJIS_LEAD_BYTES = new boolean[256];
+    private static final boolean[] DBCS_LEAD_BYTES = new boolean[256];
+
+    static {
+        Arrays.fill(SJIS_LEAD_BYTES, 0x81, 0xA0, true);
+        Arrays.fill(SJIS_LEAD_BYTES, 0xE0, 0xFD, true);
+        Arrays.fill(DBCS_LEAD_BYTES, 0x81, 0xFF, true);
+    }
+
+    private final InputStream mInput;
+    private final ByteBuffer mSource;
+    private final Charset mCharset;
+    private final boolean[] mLeadBytes;
+
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+
+    private int mToken;
+    private boolean mPushedBack;
+
+    private byte[] mName = new byte[16];
+    private int mNameLength;
+    private long mNameKey;
+
+    private byte[] mValue = new byte[256];
+    private int mValueLength;
+
+    /**
+     * Creates a lexer reading from the given stream.  The stream is not closed.
+     */
+    public SGFLexer(InputStream is, Charset charset) {
+        mInput = is;
+        mSource = null;
+        mCharset = charset;
+        mLeadBytes = leadBytesOf(charset);
+        mBuffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a lexer over a byte array which already holds the whole SGF data.
+     */
+    public SGFLexer(byte[] data, int offset, int length, Charset charset) {
+        mInput = null;
+        mSource = null;
+        mCharset = charset;
+        mLeadBytes = leadBytesOf(charset);
+        mBuffer = data;
+        mPosition = offset;
+        mLimit = offset + length;
+    }
+
+    /**
+     * Creates a lexer reading the remaining bytes of a buffer, typically a
+     * MappedByteBuffer of an SGF file.  The bytes are copied in chunks into a
+     * small array, so even a huge mapped file takes no more heap than a stream.
+     */
+    public SGFLexer(ByteBuffer source, Charset charset) {
+        mInput = null;
+        mSource = source;
+        mCharset = charset;
+        mLeadBytes = leadBytesOf(charset);
+        mBuffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns true if the byte lexer can handle data in the given charset, that is
+     * the charset encodes the SGF syntax characters as plain ASCII bytes.
+     */
+    public static boolean isSupported(Charset charset) {
+        return Arrays.equals("()[];\\:\n".getBytes(charset), new byte[]{'(', ')', '[', ']', ';', '\\', ':', '\n'});
+    }
+
+    /**
+     * Returns the lead bytes of the double byte charsets whose trail bytes overlap
+     * with ASCII, or null if the charset never puts ASCII bytes inside a character.
+     */
+    private static boolean[] leadBytesOf(Charset charset) {
+        String name = charset.name();
+        if ("Shift_JIS".equals(name) || "windows-31j".equals(name) || "x-SJIS_0213".equals(name)) {
+            return SJIS_LEAD_BYTES;
+        } else if ("GB2312".equals(name) || "GBK".equals(name) || "GB18030".equals(name)
+                || "x-mswin-936".equals(name) || "Big5".equals(name) || "Big5-HKSCS".equals(name)
+                || "x-windows-950".equals(name) || "x-MS950-HKSCS".equals(name)
+                || "x-windows-949".equals(name) || "x-Johab".equals(name)) {
+            // Files declared as GB2312 very often contain GBK characters, so treat them the same way
+            return DBCS_LEAD_BYTES;
+        }
+        return null;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    private boolean fill() throws IOException {
+        if (mSource != null) {
+            int count = Math.min(mBuffer.length, mSource.remaining());
+            if (count == 0) {
+                return false;
+            }
+            mSource.get(mBuffer, 0, count);
+            mPosition = 0;
+            mLimit = count;
+            return true;
+        }
+        if (mInput == null) {
+            return false;
+        }
+        int count;
+        do {
+            count = mInput.read(mBuffer, 0, mBuffer.length);
+        } while (count == 0);
+        if (count < 0) {
+            return false;
+        }
+        mPosition = 0;
+        mLimit = count;
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (mPosition < mLimit || fill()) {
+            return mBuffer[mPosition++] & 0xFF;
+        }
+        return TT_EOF;
+    }
+
+    private int peek() throws IOException {
+        if (mPosition < mLimit || fill()) {
+            return mBuffer[mPosition] & 0xFF;
+        }
+        return TT_EOF;
+    }
+
+    /**
+     * Reads the next structural token.
+     *
+     * @return '(', ')', ';', TT_PROPERTY (see {@link #getPropertyName()}) or TT_EOF.
+     */
+    public int nextToken() throws IOException {
+        if (mPushedBack) {
+            mPushedBack = false;
+            return mToken;
+        }
+
+        int ch;
+        while ((ch = read()) != TT_EOF) {
+            if (ch == '(' || ch == ')' || ch == ';') {
+                return mToken = ch;
+            } else if ((ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z')) {
+                readName(ch);
+                return mToken = TT_PROPERTY;
+            } else if (ch == '[') {
+                // A value without a property, nothing can be done with it.
+                skipValue();
+            } else if (mLeadBytes != null && mLeadBytes[ch]) {
+                read();
+            }
+        }
+        return mToken = TT_EOF;
+    }
+
+    /**
+     * Returns the offset of the next byte in the data of a lexer created over
+     * a byte array.
+     */
+    int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Returns the offset of the last TT_PROPERTY token's name in the data of a
+     * lexer created over a byte array.
+     */
+    int getPropertyOffset() {
+        return mPosition - mNameLength;
+    }
+
+    /**
+     * Moves a lexer created over a byte array to the given offset, for example
+     * one returned by getPropertyOffset().
+     */
+    void seek(int offset) {
+        mPosition = offset;
+        mPushedBack = false;
+    }
+
+    /**
+     * Causes the next call of nextToken to return the current token again.
+     */
+    public void pushBack() {
+        mPushedBack = true;
+    }
+
+    private void readName(int ch) throws IOException {
+        mNameLength = 0;
+        long key = 0;
+        while (true) {
+            if (mNameLength == mName.length) {
+                mName = Arrays.copyOf(mName, mNameLength * 2);
+            }
+            // FF[3] allowed lower case letters in property names, they are treated as upper case
+            if (ch >= 'a') {
+                ch -= 'a' - 'A';
+            }
+            mName[mNameLength++] = (byte) ch;
+            key = (key << 5) | (ch - 'A' + 1);
+            ch = peek();
+            if ((ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z')) {
+                mPosition++;
+            } else {
+                break;
+            }
+        }
+        mNameKey = mNameLength <= MAX_KEY_LENGTH ? key : -1;
+    }
+
+    /**
+     * Returns the packed key of the last TT_PROPERTY token, the same value
+     * {@link #propertyKey(CharSequence)} returns for its name.
+     */
+    public long getPropertyKey() {
+        return mNameKey;
+    }
+
+    /**
+     * Packs a property name into a long, five bits per letter, so property
+     * names can be compared without creating Strings.  One and two letter
+     * names get keys below 1024.
+     *
+     * @param name - The property name, letters only, lower case is treated as upper case.
+     * @return The key, or -1 if the name is empty, too long or not only letters.
+     */
+    public static long propertyKey(CharSequence name) {
+        int length = name.length();
+        if (length == 0 || length > MAX_KEY_LENGTH) {
+            return -1;
+        }
+
+        long key = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = name.charAt(i);
+            if (ch >= 'a' && ch <= 'z') {
+                ch -= 'a' - 'A';
+            } else if (ch < 'A' || ch > 'Z') {
+                return -1;
+            }
+            key = (key << 5) | (ch - 'A' + 1);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the upper case identifier of the last TT_PROPERTY token.
+     */
+    public String getPropertyName() {
+        return new String(mName, 0, mNameLength, ASCII);
+    }
+
+    /**
+     * Skips white space and, if the next byte opens a value, consumes the '['.
+     *
+     * @return true if a value follows and may now be read.
+     */
+    public boolean nextValue() throws IOException {
+        if (mPushedBack) {
+            return false;
+        }
+
+        int ch;
+        while ((ch = peek()) != TT_EOF && ch <= ' ') {
+            mPosition++;
+        }
+        if (ch == '[') {
+            mPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips the rest of the current value including the closing ']'.
+     *
+     * @return false if the end of the data was reached first.
+     */
+    public boolean skipValue() throws IOException {
+        int ch;
+        while ((ch = read()) != TT_EOF) {
+            if (ch == ']') {
+                return true;
+            } else if (ch == '\\' || (mLeadBytes != null && mLeadBytes[ch])) {
+                read();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the rest of the current value as text, including the closing ']'.
+     * <p>
+     * White space is treated the way TextToken always did: line breaks are
+     * kept, any other run of white space within a line becomes a single space
+     * and the result is trimmed.  Escaped characters are taken literally and
+     * an escaped line break is removed.
+     *
+     * @return the text, or null if the end of the data was reached first.
+     */
+    public String readText() throws IOException {
+        mValueLength = 0;
+
+        boolean lastIsWord = false;
+        boolean pendingSpace = false;
+
+        int ch;
+        while ((ch = read()) != TT_EOF) {
+            if (ch == ']') {
+                int start = 0;
+                int end = mValueLength;
+                while (start < end && (mValue[start] & 0xFF) <= ' ') start++;
+                while (end > start && (mValue[end - 1] & 0xFF) <= ' ') end--;
+                return decode(start, end);
+            }
+
+            if (ch == '\\') {
+                ch = read();
+                if (ch == TT_EOF) {
+                    return null;
+                }
+                if (ch == '\r' || ch == '\n') {
+                    // Soft line break
+                    int next = peek();
+                    if ((next == '\r' || next == '\n') && next != ch) {
+                        mPosition++;
+                    }
+                    continue;
+                }
+            } else if (ch == '\r' || ch == '\n') {
+                int next = peek();
+                if (ch == '\r' && next == '\n') {
+                    mPosition++;
+                }
+                appendValue('\n');
+                pendingSpace = false;
+                lastIsWord = false;
+                continue;
+            } else if (ch <= ' ') {
+                if (lastIsWord) {
+                    pendingSpace = true;
+                }
+                continue;
+            }
+
+            if (pendingSpace) {
+                appendValue(' ');
+                pendingSpace = false;
+            }
+            appendValue(ch);
+            if (mLeadBytes != null && mLeadBytes[ch]) {
+                int trail = read();
+                if (trail == TT_EOF) {
+                    return null;
+                }
+                appendValue(trail);
+            }
+            lastIsWord = true;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the rest of the current value with escapes resolved and surrounding
+     * white space removed, including the closing ']'.  The bytes are available
+     * through {@link #valueAt(int)} and {@link #valueString(int)}.
+     *
+     * @return the length of the value, or -1 if the end of the data was reached first.
+     */
+    public int readValue() throws IOException {
+        mValueLength = 0;
+
+        int ch;
+        while ((ch = read()) != TT_EOF) {
+            if (ch == ']') {
+                int start = 0;
+                while (start < mValueLength && (mValue[start] & 0xFF) <= ' ') start++;
+                while (mValueLength > start && (mValue[mValueLength - 1] & 0xFF) <= ' ') mValueLength--;
+                if (start > 0) {
+                    System.arraycopy(mValue, start, mValue, 0, mValueLength - start);
+                    mValueLength -= start;
+                }
+                return mValueLength;
+            }
+            if (ch == '\\') {
+                ch = read();
+                if (ch == TT_EOF) {
+                    return -1;
+                }
+                if (ch == '\r' || ch == '\n') {
+                    continue;
+                }
+            } else if (mLeadBytes != null && mLeadBytes[ch]) {
+                appendValue(ch);
+                ch = read();
+                if (ch == TT_EOF) {
+                    return -1;
+                }
+            }
+            appendValue(ch);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the length of the value read by {@link #readValue()}.
+     */
+    public int valueLength() {
+        return mValueLength;
+    }
+
+    /**
+     * Returns the byte at the given index of the value read by {@link #readValue()}.
+     */
+    public int valueAt(int index) {
+        return mValue[index] & 0xFF;
+    }
+
+    /**
+     * Decodes the value read by {@link #readValue()}, starting at the given index.
+     */
+    public String valueString(int from) {
+        return decode(from, mValueLength);
+    }
+
+    private String decode(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (mValue[i] < 0) {
+                return new String(mValue, start, end - start, mCharset);
+            }
+        }
+        // Pure ASCII, which every supported charset maps one to one, so use the cheapest decoder
+        return new String(mValue, start, end - start, ASCII);
+    }
+
+    private void appendValue(int ch) {
+        if (mValueLength == mValue.length) {
+            mValue = Arrays.copyOf(mValue, mValueLength * 2);
+        }
+        mValue[mValueLength++] = (byte) ch;
+    }
+}
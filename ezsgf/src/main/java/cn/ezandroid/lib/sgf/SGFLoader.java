@@ -20,11 +20,27 @@
 package cn.ezandroid.lib.sgf;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
 import java.io.StreamTokenizer;
-import java.util.LinkedList;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import cn.ezandroid.lib.sgf.tokens.AddBlackToken;
 import cn.ezandroid.lib.sgf.tokens.AddEmptyToken;
@@ -49,7 +65,6 @@ import cn.ezandroid.lib.sgf.tokens.GameCommentToken;
 import cn.ezandroid.lib.sgf.tokens.GameNameToken;
 import cn.ezandroid.lib.sgf.tokens.GameTypeToken;
 import cn.ezandroid.lib.sgf.tokens.HandicapToken;
-import cn.ezandroid.lib.sgf.tokens.InfoToken;
 import cn.ezandroid.lib.sgf.tokens.KoToken;
 import cn.ezandroid.lib.sgf.tokens.KomiToken;
 import cn.ezandroid.lib.sgf.tokens.LabelToken;
@@ -81,31 +96,304 @@ import cn.ezandroid.lib.sgf.tokens.WhiteTimeToken;
  * A way to load SGF files.  This class handles SGF File Formats 3 and 4.
  * The API is extremely simple, so subclassing to handle different file
  * formats shouldn't be difficult.
+ * <p>
+ * A loader keeps no state of its own while loading, everything a load needs
+ * lives in a ParseContext of that load.  So once it is set up, one loader may
+ * load games on several threads at the same time.
+ * <p>
+ * Games are read with Lexer.BYTE by default, which creates the tokens through
+ * the registered token factories and never calls readToken(StreamTokenizer).
+ * A subclass that overrides readToken(StreamTokenizer) therefore starts with
+ * Lexer.STREAM_TOKENIZER, so its override keeps working; it can switch to
+ * the faster lexer with setLexer() once its tokens are registered through
+ * registerToken() instead.
  */
 public class SGFLoader {
 
-    private LinkedList<SGFToken> mGameInfoTokens = new LinkedList<>();
+    /**
+     * The lexers a loader can read SGF data with.
+     */
+    public enum Lexer {
+        /**
+         * The original java.io.StreamTokenizer based parsing, decodes every character.
+         */
+        STREAM_TOKENIZER,
+        /**
+         * SGFLexer, works on bytes and only decodes text values.  Falls back to
+         * STREAM_TOKENIZER for charsets that are not ASCII compatible.
+         */
+        BYTE
+    }
+
+    /**
+     * Creates the empty SGFToken for a property, see registerToken().
+     */
+    public interface TokenFactory {
+
+        SGFToken create();
+    }
+
+    /**
+     * Learns about the games of a collection that failed to load, see
+     * loadCollection().
+     */
+    public interface CollectionErrorListener {
+
+        /**
+         * Called on the loading thread, in the order of the games, before
+         * loadCollection() returns.
+         *
+         * @param index - The position of the game in the collection.
+         * @param error - Why it failed, usually an SGFException or IOException.
+         */
+        void onGameFailed(int index, Throwable error);
+    }
+
+    /**
+     * The state of one load, so that loads don't share anything but the
+     * loader's settings.
+     */
+    private static final class ParseContext {
+
+        final SGFHandler mHandler;
+
+        // Set on lazy loads only
+        final SGFGameBuilder mBuilder;
+        final SGFLeafSource mSource;
+
+        // The tokens registered when the load started
+        final SGFTokenTable mTokens;
+
+        ParseContext(SGFHandler handler, SGFTokenTable tokens) {
+            mHandler = handler;
+            mBuilder = null;
+            mSource = null;
+            mTokens = tokens;
+        }
+
+        ParseContext(SGFGameBuilder builder, SGFLeafSource source, SGFTokenTable tokens) {
+            mHandler = builder;
+            mBuilder = builder;
+            mSource = source;
+            mTokens = tokens;
+        }
+    }
+
+    private static final SGFTokenTable DEFAULT_TOKENS = new SGFTokenTable();
+
+    // How much of a stream is searched for the CA property
+    private static final int CHARSET_SNIFF_SIZE = 4 * 1024;
+
+    private static final long CHARSET_KEY = SGFLexer.propertyKey("CA");
+
+    static {
+        // Black and White moves are the most common token in an SGF file.
+        //
+        DEFAULT_TOKENS.put("B", BlackMoveToken::new);
+        DEFAULT_TOKENS.put("BLACK", BlackMoveToken::new);
+        DEFAULT_TOKENS.put("W", WhiteMoveToken::new);
+        DEFAULT_TOKENS.put("WHITE", WhiteMoveToken::new);
+
+        // Comments, notes, and figures are next most common.
+        //
+        DEFAULT_TOKENS.put("C", CommentToken::new);
+        DEFAULT_TOKENS.put("COMMENT", CommentToken::new);
+        DEFAULT_TOKENS.put("N", NodeNameToken::new);
+        DEFAULT_TOKENS.put("NAME", NodeNameToken::new);
+
+        // Tokens which apply to a leaf are next most common (board mark-up,
+        // estimated score, etc.).
+        //
+        DEFAULT_TOKENS.put("AR", ArrowToken::new);
+        DEFAULT_TOKENS.put("CR", CircleToken::new);
+        DEFAULT_TOKENS.put("SQ", SquareToken::new);
+        DEFAULT_TOKENS.put("TR", TriangleToken::new);
+        DEFAULT_TOKENS.put("LB", LabelToken::new);
+        DEFAULT_TOKENS.put("MN", MoveNumberToken::new);
+        DEFAULT_TOKENS.put("LN", LineToken::new);
+        DEFAULT_TOKENS.put("DD", DimToken::new);
+        DEFAULT_TOKENS.put("SL", SelectedToken::new);
+        DEFAULT_TOKENS.put("MA", MarkToken::new);
+
+        // Adding black moves and white moves is typically done at the beginning
+        // of a game (initial board position).
+        //
+        DEFAULT_TOKENS.put("AB", AddBlackToken::new);
+        DEFAULT_TOKENS.put("ADDBLACK", AddBlackToken::new);
+        DEFAULT_TOKENS.put("AW", AddWhiteToken::new);
+        DEFAULT_TOKENS.put("ADDWHITE", AddWhiteToken::new);
+        DEFAULT_TOKENS.put("AE", AddEmptyToken::new);
+        DEFAULT_TOKENS.put("ADDEMPTY", AddEmptyToken::new);
+
+        // Ko move, illegal capture, used mostly at the end of the game.
+        //
+        DEFAULT_TOKENS.put("KO", KoToken::new);
+
+        // Lastly, tokens that belong to the first leaf of the first variation
+        // appear once.
+        //
+        DEFAULT_TOKENS.put("FF", FileFormatToken::new);
+        DEFAULT_TOKENS.put("AP", ApplicationToken::new);
+        DEFAULT_TOKENS.put("GM", GameTypeToken::new);
+        DEFAULT_TOKENS.put("GAME", GameTypeToken::new);
+        DEFAULT_TOKENS.put("CA", CharsetToken::new);
+        DEFAULT_TOKENS.put("SZ", SizeToken::new);
+        DEFAULT_TOKENS.put("SIZE", SizeToken::new);
+        DEFAULT_TOKENS.put("KM", KomiToken::new);
+        DEFAULT_TOKENS.put("KOMI", KomiToken::new);
+        DEFAULT_TOKENS.put("HA", HandicapToken::new);
+        DEFAULT_TOKENS.put("HANDICAP", HandicapToken::new);
+        DEFAULT_TOKENS.put("PW", WhiteNameToken::new);
+        DEFAULT_TOKENS.put("PLAYERWHITE", WhiteNameToken::new);
+        DEFAULT_TOKENS.put("PB", BlackNameToken::new);
+        DEFAULT_TOKENS.put("PLAYERBLACK", BlackNameToken::new);
+        DEFAULT_TOKENS.put("WR", WhiteRankToken::new);
+        DEFAULT_TOKENS.put("WHITERANK", WhiteRankToken::new);
+        DEFAULT_TOKENS.put("BR", BlackRankToken::new);
+        DEFAULT_TOKENS.put("BLACKRANK", BlackRankToken::new);
+        DEFAULT_TOKENS.put("WT", WhiteTeamToken::new);
+        DEFAULT_TOKENS.put("WHITETEAM", WhiteTeamToken::new);
+        DEFAULT_TOKENS.put("BT", BlackTeamToken::new);
+        DEFAULT_TOKENS.put("BLACKTEAM", BlackTeamToken::new);
+        DEFAULT_TOKENS.put("DT", DateToken::new);
+        DEFAULT_TOKENS.put("DATE", DateToken::new);
+        DEFAULT_TOKENS.put("RE", ResultToken::new);
+        DEFAULT_TOKENS.put("RESULT", ResultToken::new);
+        DEFAULT_TOKENS.put("TM", TimeLimitToken::new);
+        DEFAULT_TOKENS.put("TIME", TimeLimitToken::new);
+        DEFAULT_TOKENS.put("BL", BlackTimeToken::new);
+        DEFAULT_TOKENS.put("WL", WhiteTimeToken::new);
+        DEFAULT_TOKENS.put("OB", BlackStonesLeftToken::new);
+        DEFAULT_TOKENS.put("OW", WhiteStonesLeftToken::new);
+        DEFAULT_TOKENS.put("PC", PlaceToken::new);
+        DEFAULT_TOKENS.put("EV", EventToken::new);
+        DEFAULT_TOKENS.put("EVENT", EventToken::new);
+        DEFAULT_TOKENS.put("RO", RoundToken::new);
+        DEFAULT_TOKENS.put("ROUND", RoundToken::new);
+        DEFAULT_TOKENS.put("SO", SourceToken::new);
+        DEFAULT_TOKENS.put("SOURCE", SourceToken::new);
+        DEFAULT_TOKENS.put("AN", AnnotationToken::new);
+        DEFAULT_TOKENS.put("US", UserToken::new);
+        DEFAULT_TOKENS.put("GC", GameCommentToken::new);
+        DEFAULT_TOKENS.put("TC", GameCommentToken::new);
+        DEFAULT_TOKENS.put("RU", RuleToken::new);
+        DEFAULT_TOKENS.put("GN", GameNameToken::new);
+        DEFAULT_TOKENS.put("TE", GameNameToken::new);
+        DEFAULT_TOKENS.put("GAMENAME", GameNameToken::new);
+    }
+
+    // The settings are only replaced, never changed in place, so loads on
+    // other threads always see a consistent value.
+    //
+    private volatile SGFTokenTable mTokens = DEFAULT_TOKENS;
+
+    private volatile Lexer mLexer;
+
+    private final boolean mOverridesReadToken;
+
+    private volatile boolean mLazy;
 
     /**
      * constructor.
      * Barry: I would really like this class to be abstract and this method protected, but jigo classes use it.
      */
-    public SGFLoader() {}
+    public SGFLoader() {
+        mOverridesReadToken = overridesReadToken(getClass());
+        mLexer = mOverridesReadToken ? Lexer.STREAM_TOKENIZER : Lexer.BYTE;
+    }
+
+    /**
+     * Returns true if the class or one of its superclasses below SGFLoader
+     * overrides readToken(StreamTokenizer), which only STREAM_TOKENIZER calls.
+     */
+    private static boolean overridesReadToken(Class<?> type) {
+        for (; type != SGFLoader.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("readToken", StreamTokenizer.class);
+                return true;
+            } catch (NoSuchMethodException ignored) {
+                // Not declared at this level
+            }
+        }
+        return false;
+    }
 
-    public SGFGame load(InputStream is, String charset)
-            throws IOException, SGFException {
-        // Create and initialize a new StreamTokenizer, to make parsing simple.
-        //
-        StreamTokenizer st = new StreamTokenizer(
-                new BufferedReader(new InputStreamReader(is, charset)));
+    /**
+     * Registers the token created for a property, replacing the built-in one if
+     * there is any.  This is how subclasses support properties of other game
+     * types; unknown properties are read as TextTokens.
+     * <p>
+     * Loads that are already running, including the lazy leaves of games
+     * loaded before, keep the tokens registered when they started.
+     *
+     * @param tokenName - The property name, letters only, like "B" or "AB".
+     * @param factory   - Creates an empty token, which then parses itself.
+     */
+    public synchronized void registerToken(String tokenName, TokenFactory factory) {
+        SGFTokenTable tokens = mTokens.copy();
+        tokens.put(tokenName, factory);
+        mTokens = tokens;
+    }
+
+    /**
+     * Selects the lexer used by the following loads, Lexer.BYTE by default and
+     * Lexer.STREAM_TOKENIZER for subclasses that override
+     * readToken(StreamTokenizer), see the class documentation.
+     */
+    public void setLexer(Lexer lexer) {
+        mLexer = lexer;
+    }
 
-        resetTokenizer(st);
+    public Lexer getLexer() {
+        return mLexer;
+    }
+
+    /**
+     * Turns lazy loading on or off for the following loads, off by default.
+     * <p>
+     * A lazy load keeps the whole SGF data in memory and its leaves only record
+     * where their properties are; the tokens of a leaf are created the first
+     * time it is asked for them.  Game information tokens are still read right
+     * away.  Browsing a few games of a large, heavily commented collection this
+     * way saves most of the parsing and of the heap.
+     * <p>
+     * Only Lexer.BYTE loads with a supported charset can be lazy, others ignore
+     * this setting.  parse() is never lazy.
+     */
+    public void setLazy(boolean lazy) {
+        mLazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return mLazy;
+    }
 
-        SGFGame sgfGame = readGame(st);
+    public SGFGame load(InputStream is, String charset)
+            throws IOException, SGFException {
+        return load(is, Charset.forName(charset));
+    }
 
-        is.close();
+    public SGFGame load(InputStream is, Charset charset)
+            throws IOException, SGFException {
+        // Read the game tree, and return a new SGFGame coupling
+        // them like lovers.
+        //
+        Lexer lexer = mLexer;
+        SGFTokenTable tokens = mTokens;
+        if (mLazy && lexer == Lexer.BYTE && SGFLexer.isSupported(charset)) {
+            byte[] data;
+            try {
+                data = readFully(is);
+            } finally {
+                is.close();
+            }
+            return loadGame(data, 0, data.length, charset, lexer, tokens,
+                    new SGFLeafSource(data, charset, tokens));
+        }
 
-        return sgfGame;
+        SGFGameBuilder builder = new SGFGameBuilder();
+        parse(is, charset, lexer, new ParseContext(builder, tokens));
+        return builder.getGame();
     }
 
     /**
@@ -116,60 +404,481 @@ public class SGFLoader {
      * On some minor errors (like syntax problems with the file), the parsing
      * will stop and return whatever was parsed to that point.
      * <p>
+     * The charset is the one the CA property declares, see detectCharset().
      * <p>
-     * Since everything is static, only one thread at a time may load a game.
+     * Any number of threads may load games with the same loader at once.
      *
      * @param is - The InputStream from which contains SGF 3 or SGF 4 data.
      * @return A complete SGFGame, or null on unrecoverable errors.
      */
     public SGFGame load(InputStream is)
             throws IOException, SGFException {
-        // Create and initialize a new StreamTokenizer, to make parsing simple.
-        //
-        StreamTokenizer st = new StreamTokenizer(
-                new BufferedReader(new InputStreamReader(is)));
-
-        resetTokenizer(st);
+        byte[] head = new byte[CHARSET_SNIFF_SIZE];
+        int length = readHead(is, head);
+        return load(new SequenceInputStream(new ByteArrayInputStream(head, 0, length), is),
+                detectCharset(head, 0, length, Charset.defaultCharset()));
+    }
 
-        SGFGame sgfGame = readGame(st);
+    /**
+     * Loads a game from a file, with the charset its CA property declares
+     * (see detectCharset()).
+     *
+     * @see #load(FileChannel, Charset)
+     */
+    public SGFGame load(File file)
+            throws IOException, SGFException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        MappedByteBuffer buffer;
+        try {
+            buffer = map(channel);
+        } finally {
+            channel.close();
+        }
 
-        is.close();
+        byte[] head = new byte[Math.min(CHARSET_SNIFF_SIZE, buffer.remaining())];
+        buffer.duplicate().get(head);
+        return load(buffer, detectCharset(head, 0, head.length, Charset.defaultCharset()));
+    }
 
-        return sgfGame;
+    public SGFGame load(File file, Charset charset)
+            throws IOException, SGFException {
+        return load(new FileInputStream(file).getChannel(), charset);
     }
 
     /**
-     * Reads the entire game into a set of SGFTokens organized into a tree,
-     * which represent variations in the game.  Does not handle multiple
-     * games in a single file, yet (why this was made part of the SGF
-     * specification is beyond me).
+     * Loads a game from a file channel, from its current position to the end.
+     * <p>
+     * The file is memory mapped and parsed straight from the mapping, so the
+     * bytes don't go through any stream or reader and a large file doesn't
+     * need a matching amount of heap.  Lazy loads and the StreamTokenizer
+     * lexer still read the whole file.  The channel is closed.
      *
-     * @param st - The StreamTokenizer used to read text-based tokens from
-     *           the input stream.
-     * @return A fully parsed SGFGame, or null on unrecoverable errors.
+     * @param channel - The channel of an SGF 3 or SGF 4 file.
+     * @param charset - The charset of the data.
+     * @return A complete SGFGame, or null on unrecoverable errors.
      */
-    private SGFGame readGame(StreamTokenizer st)
+    public SGFGame load(FileChannel channel, Charset charset)
+            throws IOException, SGFException {
+        MappedByteBuffer buffer;
+        try {
+            buffer = map(channel);
+        } finally {
+            channel.close();
+        }
+        return load(buffer, charset);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel) throws IOException {
+        long position = channel.position();
+        long size = channel.size() - position;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large to map: " + size + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(size, 0));
+    }
+
+    private SGFGame load(MappedByteBuffer buffer, Charset charset)
             throws IOException, SGFException {
-        // Reset the game information tokens so they have a place to stay.
+        Lexer lexer = mLexer;
+        SGFTokenTable tokens = mTokens;
+        if (!mLazy && lexer == Lexer.BYTE && SGFLexer.isSupported(charset)) {
+            SGFGameBuilder builder = new SGFGameBuilder();
+            readGame(new SGFLexer(buffer, charset), new ParseContext(builder, tokens));
+            return builder.getGame();
+        }
+
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        if (lexer == Lexer.BYTE && SGFLexer.isSupported(charset)) {
+            return loadGame(data, 0, data.length, charset, lexer, tokens,
+                    new SGFLeafSource(data, charset, tokens));
+        }
+        return load(new ByteArrayInputStream(data), charset);
+    }
+
+    public List<SGFGame> loadCollection(InputStream is, String charset)
+            throws IOException {
+        return loadCollection(is, Charset.forName(charset));
+    }
+
+    /**
+     * Loads every game of an SGF collection, using one thread per processor.
+     *
+     * @see #loadCollection(InputStream, Charset, ExecutorService, CollectionErrorListener)
+     */
+    public List<SGFGame> loadCollection(InputStream is, Charset charset)
+            throws IOException {
+        return loadCollection(is, charset, (CollectionErrorListener) null);
+    }
+
+    /**
+     * Loads every game of an SGF collection, using one thread per processor.
+     *
+     * @see #loadCollection(InputStream, Charset, ExecutorService, CollectionErrorListener)
+     */
+    public List<SGFGame> loadCollection(InputStream is, Charset charset, CollectionErrorListener listener)
+            throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return loadCollection(is, charset, executor, listener);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Loads every game of an SGF collection on the given executor.
+     *
+     * @see #loadCollection(InputStream, Charset, ExecutorService, CollectionErrorListener)
+     */
+    public List<SGFGame> loadCollection(InputStream is, Charset charset, ExecutorService executor)
+            throws IOException {
+        return loadCollection(is, charset, executor, null);
+    }
+
+    /**
+     * Loads every game of an SGF collection, that is every top level
+     * '(' ... ')' tree of the data.
+     * <p>
+     * The data is read into memory and split at the game boundaries first,
+     * then the games are parsed in parallel on the given executor.  Each game
+     * is loaded as if it were a file of its own.  A game that fails to load
+     * doesn't affect the others, it is null in the returned list and the
+     * listener gets its index and the cause.
+     * <p>
+     * The loader's settings (lexer, lazy loading, registered tokens) apply
+     * and must not be changed until the collection is loaded.  The stream is
+     * closed.
+     *
+     * @param is       - The InputStream from which contains SGF 3 or SGF 4 data.
+     * @param charset  - The charset of the data.
+     * @param executor - Runs the parsing of the games.
+     * @param listener - Gets the games that failed to load, may be null.
+     * @return The games in the order of the data.
+     */
+    public List<SGFGame> loadCollection(InputStream is, Charset charset, ExecutorService executor,
+                                        CollectionErrorListener listener)
+            throws IOException {
+        byte[] data;
+        try {
+            data = readFully(is);
+        } finally {
+            is.close();
+        }
+
+        // The games are found on bytes, so data in other charsets is converted
+        // to one the byte lexer understands.
         //
-        mGameInfoTokens.clear();
+        if (!SGFLexer.isSupported(charset)) {
+            Charset utf8 = Charset.forName("UTF-8");
+            data = new String(data, charset).getBytes(utf8);
+            charset = utf8;
+        }
 
-        // Read the game tree, and return a new SGFGame coupling
-        // them like lovers.
+        final Lexer lexer = mLexer;
+        final SGFTokenTable tokens = mTokens;
+        final SGFLeafSource source = mLazy && lexer == Lexer.BYTE
+                ? new SGFLeafSource(data, charset, tokens) : null;
+        final byte[] gameData = data;
+        final Charset gameCharset = charset;
+
+        int[] bounds = findGames(data, charset);
+        List<Callable<SGFGame>> tasks = new ArrayList<>(bounds.length / 2);
+        for (int i = 0; i < bounds.length; i += 2) {
+            final int offset = bounds[i];
+            final int length = bounds[i + 1] - offset;
+            tasks.add(() -> loadGame(gameData, offset, length, gameCharset, lexer, tokens, source));
+        }
+
+        List<SGFGame> games = new ArrayList<>(tasks.size());
+        try {
+            for (Future<SGFGame> future : executor.invokeAll(tasks)) {
+                try {
+                    games.add(future.get());
+                } catch (ExecutionException e) {
+                    if (listener != null) {
+                        listener.onGameFailed(games.size(), e.getCause());
+                    }
+                    games.add(null);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        return games;
+    }
+
+    /**
+     * Finds the top level trees of an SGF collection.
+     *
+     * @return The start and end offset of each game, one after the other.
+     */
+    private static int[] findGames(byte[] data, Charset charset) throws IOException {
+        SGFLexer lexer = new SGFLexer(data, 0, data.length, charset);
+        int[] bounds = new int[16];
+        int count = 0;
+        int depth = 0;
+
+        int token;
+        while ((token = lexer.nextToken()) != SGFLexer.TT_EOF) {
+            if (token == '(') {
+                if (depth++ == 0) {
+                    if (count == bounds.length) {
+                        bounds = Arrays.copyOf(bounds, count * 2);
+                    }
+                    bounds[count] = lexer.getPosition() - 1;
+                }
+            } else if (token == ')') {
+                if (depth > 0 && --depth == 0) {
+                    bounds[count + 1] = lexer.getPosition();
+                    count += 2;
+                }
+            } else if (token == SGFLexer.TT_PROPERTY) {
+                while (lexer.nextValue()) {
+                    lexer.skipValue();
+                }
+            }
+        }
+
+        // A last game that isn't closed ends with the data.
         //
-        SGFTree rootTree = readTree(st);
+        if (depth > 0) {
+            bounds[count + 1] = data.length;
+            count += 2;
+        }
+        return Arrays.copyOf(bounds, count);
+    }
 
-        SGFGame sgfGame = new SGFGame(rootTree);
+    private SGFGame loadGame(byte[] data, int offset, int length, Charset charset,
+                             Lexer lexer, SGFTokenTable tokens, SGFLeafSource source)
+            throws IOException, SGFException {
+        SGFGameBuilder builder = new SGFGameBuilder();
+        if (lexer == Lexer.BYTE) {
+            readGame(new SGFLexer(data, offset, length, charset), source != null
+                    ? new ParseContext(builder, source, tokens)
+                    : new ParseContext(builder, tokens));
+        } else {
+            parse(new ByteArrayInputStream(data, offset, length), charset, lexer,
+                    new ParseContext(builder, tokens));
+        }
+        return builder.getGame();
+    }
 
-        // Get the the game info tokens read from the SGF file and add them
-        // to the game.  This way we guarantee that all tokens related to
-        // the game are in the SGFGame class.
+    public void parse(InputStream is, String charset, SGFHandler handler)
+            throws IOException, SGFException {
+        parse(is, Charset.forName(charset), handler);
+    }
+
+    /**
+     * Reads SGF data and reports its trees, nodes and tokens to the handler as
+     * they are found, instead of building an SGFGame.  Use this to scan large
+     * files or collections, load() is parse() with an SGFGameBuilder.
+     * <p>
+     * Like load(), parsing stops at the end of the data and the stream is closed.
+     *
+     * @param is      - The InputStream from which contains SGF 3 or SGF 4 data.
+     * @param charset - The charset of the data.
+     * @param handler - Receives the parsed content.
+     */
+    public void parse(InputStream is, Charset charset, SGFHandler handler)
+            throws IOException, SGFException {
+        parse(is, charset, mLexer, new ParseContext(handler, mTokens));
+    }
+
+    private void parse(InputStream is, Charset charset, Lexer lexer, ParseContext context)
+            throws IOException, SGFException {
+        try {
+            if (lexer == Lexer.BYTE && SGFLexer.isSupported(charset)) {
+                readGame(new SGFLexer(is, charset), context);
+            } else {
+                // Create and initialize a new StreamTokenizer, to make parsing simple.
+                //
+                StreamTokenizer st = new StreamTokenizer(
+                        new BufferedReader(new InputStreamReader(is, charset)));
+
+                resetTokenizer(st);
+
+                readGame(st, context);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Like parse(InputStream, Charset, SGFHandler), with the charset the CA
+     * property declares, see detectCharset().
+     */
+    public void parse(InputStream is, SGFHandler handler)
+            throws IOException, SGFException {
+        byte[] head = new byte[CHARSET_SNIFF_SIZE];
+        int length = readHead(is, head);
+        parse(new SequenceInputStream(new ByteArrayInputStream(head, 0, length), is),
+                detectCharset(head, 0, length, Charset.defaultCharset()), handler);
+    }
+
+    /**
+     * Finds the charset of SGF data from its first bytes, without decoding them.
+     * <p>
+     * A UTF-8 byte order mark means UTF-8.  Otherwise the value of the first CA
+     * property is used if it names a charset this platform supports.  Only
+     * when there is no such CA, text that is valid UTF-8 with at least one
+     * multi-byte character is taken as UTF-8, since GB2312 or GBK text can be
+     * valid UTF-8 too.
+     *
+     * @param data     - The start of the SGF data, a few KB are enough.
+     * @param fallback - The charset to use if none is declared.
+     * @return The charset of the data.
+     */
+    public static Charset detectCharset(byte[] data, int offset, int length, Charset fallback) {
+        if (length >= 3 && (data[offset] & 0xFF) == 0xEF && (data[offset + 1] & 0xFF) == 0xBB
+                && (data[offset + 2] & 0xFF) == 0xBF) {
+            return Charset.forName("UTF-8");
+        }
+
+        Charset declared = findDeclaredCharset(data, offset, length);
+        if (declared != null) {
+            return declared;
+        }
+        if (isUtf8(data, offset, length)) {
+            return Charset.forName("UTF-8");
+        }
+        return fallback;
+    }
+
+    /**
+     * Returns the charset the first CA property names, null if there is no CA
+     * or this platform doesn't support the charset.
+     */
+    private static Charset findDeclaredCharset(byte[] data, int offset, int length) {
+        // The syntax bytes are ASCII in every charset a CA property can
+        // reasonably name, so read the head as Latin-1.
         //
-        for (SGFToken token : mGameInfoTokens) {
-            sgfGame.addInfoToken((InfoToken) (token));
+        SGFLexer lexer = new SGFLexer(data, offset, length, Charset.forName("ISO-8859-1"));
+        try {
+            int token;
+            while ((token = lexer.nextToken()) != SGFLexer.TT_EOF) {
+                if (token != SGFLexer.TT_PROPERTY) {
+                    continue;
+                }
+                if (lexer.getPropertyKey() != CHARSET_KEY) {
+                    while (lexer.nextValue()) {
+                        lexer.skipValue();
+                    }
+                } else if (lexer.nextValue() && lexer.readValue() > 0) {
+                    String name = lexer.valueString(0).trim();
+                    try {
+                        if (Charset.isSupported(name)) {
+                            return Charset.forName(name);
+                        }
+                    } catch (IllegalArgumentException ignored) {
+                        // Not a valid charset name
+                    }
+                    break;
+                }
+            }
+        } catch (IOException ignored) {
+            // Never thrown by a lexer over a byte array
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the bytes hold at least one complete multi-byte UTF-8
+     * character and nothing that isn't UTF-8.  Overlong forms and surrogates
+     * are not UTF-8.  The head of a file may end in the middle of a
+     * character; the bytes that are there must fit, but such a character
+     * isn't counted.
+     */
+    private static boolean isUtf8(byte[] data, int offset, int length) {
+        boolean multiByte = false;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b = data[i++] & 0xFF;
+            if (b < 0x80) {
+                continue;
+            }
+
+            int trail;
+            // The allowed range of the first trail byte
+            int min = 0x80;
+            int max = 0xBF;
+            if (b >= 0xC2 && b <= 0xDF) {
+                trail = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                trail = 2;
+                if (b == 0xE0) {
+                    min = 0xA0;
+                } else if (b == 0xED) {
+                    max = 0x9F;
+                }
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                trail = 3;
+                if (b == 0xF0) {
+                    min = 0x90;
+                } else if (b == 0xF4) {
+                    max = 0x8F;
+                }
+            } else {
+                return false;
+            }
+            for (; trail > 0; trail--) {
+                if (i == end) {
+                    // Cut off at the end of the head
+                    return multiByte;
+                }
+                int t = data[i++] & 0xFF;
+                if (t < min || t > max) {
+                    return false;
+                }
+                min = 0x80;
+                max = 0xBF;
+            }
+            multiByte = true;
+        }
+        return multiByte;
+    }
+
+    /**
+     * Reads up to head.length bytes, fewer only at the end of the stream.
+     */
+    private static int readHead(InputStream is, byte[] head) throws IOException {
+        int length = 0;
+        int count;
+        while (length < head.length && (count = is.read(head, length, head.length - length)) != -1) {
+            length += count;
         }
+        return length;
+    }
 
-        return sgfGame;
+    /**
+     * Reads the entire game into a set of SGFTokens organized into a tree,
+     * which represent variations in the game.  Multiple games in a single
+     * file end up as variations of the root tree, loadCollection() returns
+     * them as separate games.
+     *
+     * @param st      - The StreamTokenizer used to read text-based tokens from
+     *                the input stream.
+     * @param context - The state of the load.
+     */
+    private void readGame(StreamTokenizer st, ParseContext context)
+            throws IOException, SGFException {
+        context.mHandler.startTree();
+        readTree(st, context);
+        context.mHandler.endTree();
+    }
+
+    /**
+     * The SGFLexer counterpart of readGame(StreamTokenizer, ParseContext).
+     */
+    private void readGame(SGFLexer lexer, ParseContext context)
+            throws IOException, SGFException {
+        context.mHandler.startTree();
+        readTree(lexer, context);
+        context.mHandler.endTree();
     }
 
     /**
@@ -180,12 +889,13 @@ public class SGFLoader {
      * either a new tree (indicated by an opening parenthesis) or the end
      * the current tree (indicated by a closing parenthesis).
      *
-     * @param st - The StreamTokenizer from which to read an SGF File.
-     * @return An SGFTree representing the contents of the given stream.
+     * @param st      - The StreamTokenizer from which to read an SGF File.
+     * @param context - The state of the load, its handler receives the
+     *                leaves and sub-trees of the tree.
      */
-    private SGFTree readTree(StreamTokenizer st)
+    private void readTree(StreamTokenizer st, ParseContext context)
             throws IOException, SGFException {
-        SGFTree tree = new SGFTree();
+        SGFHandler handler = context.mHandler;
         int token;
 
         // Continue reading in from the file while the next token is one of:
@@ -199,19 +909,22 @@ public class SGFLoader {
                 //
                 case (int) ';':
                 default: // Sina棋谱格式不标准，第一个'('后不是';'，导致解析失败，这里不抛出异常进行兼容
-                    tree.addLeaf(readLeaf(st));
+                    handler.startNode();
+                    readLeaf(st, context);
                     break;
 
                 // Read an entire sub-tree (variation).
                 //
                 case (int) '(':
-                    tree.addTree(readTree(st));
+                    handler.startTree();
+                    readTree(st, context);
+                    handler.endTree();
                     break;
 
                 // This variation has no more leaves (or sub-variations).
                 //
                 case (int) ')':
-                    return tree;
+                    return;
 
                 // A major parsing error has occured.  Return whatever was parsed to
                 // this point.
@@ -220,8 +933,45 @@ public class SGFLoader {
 //                    throw new SGFException(INVALID_SGF_FILE);
             }
         }
+    }
+
+    /**
+     * The SGFLexer counterpart of readTree(StreamTokenizer, ParseContext).
+     *
+     * @param lexer   - The SGFLexer from which to read an SGF File.
+     * @param context - The state of the load.
+     */
+    private void readTree(SGFLexer lexer, ParseContext context)
+            throws IOException, SGFException {
+        SGFHandler handler = context.mHandler;
+        int token;
 
-        return tree;
+        while ((token = lexer.nextToken()) != SGFLexer.TT_EOF) {
+            switch (token) {
+                case (int) ';':
+                    handler.startNode();
+                    readLeaf(lexer, context);
+                    break;
+
+                case (int) '(':
+                    handler.startTree();
+                    readTree(lexer, context);
+                    handler.endTree();
+                    break;
+
+                case (int) ')':
+                    return;
+
+                // A property without a leading ';' (see the Sina format above), so it
+                // belongs to a new leaf.
+                //
+                default:
+                    lexer.pushBack();
+                    handler.startNode();
+                    readLeaf(lexer, context);
+                    break;
+            }
+        }
     }
 
     /**
@@ -231,12 +981,12 @@ public class SGFLoader {
      * A leaf (node) starts at a semicolon contains tokens up until another
      * semicolon or closing parenthesis occurs.
      *
-     * @param st - The StreamTokenizer from which to read an SGF node.
-     * @return An SGFLeaf representing the contents of the node.
+     * @param st      - The StreamTokenizer from which to read an SGF node.
+     * @param context - The state of the load, its handler receives the
+     *                tokens of the node.
      */
-    private SGFLeaf readLeaf(StreamTokenizer st)
+    private void readLeaf(StreamTokenizer st, ParseContext context)
             throws IOException, SGFException {
-        SGFLeaf leaf = null;
         SGFToken sgfToken;
 
         int token;
@@ -250,26 +1000,53 @@ public class SGFLoader {
                 (token != (int) '(') &&
                 (token != (int) ')')) {
             if (token == StreamTokenizer.TT_WORD)
-                if ((sgfToken = readToken(st)) != null) {
-                    // Since we found a token that belongs to the "information"
-                    // class, it gets a special place in habitat.
-                    //
-                    if (sgfToken instanceof InfoToken)
-                        mGameInfoTokens.add(sgfToken);
-                    else {
-                        if (leaf == null)
-                            leaf = new SGFLeaf(sgfToken);
-                        else
-                            leaf.addToken(sgfToken);
-                    }
-                }
+                if ((sgfToken = mOverridesReadToken ? readToken(st) : readToken(st, context.mTokens)) != null)
+                    context.mHandler.property(sgfToken);
         }
 
         // We found something that couldn't be an SGFToken, so let the calling
         // method handle whatever we read.  (End of game/variation/leaf, etc.)
         //
         st.pushBack();
-        return leaf;
+    }
+
+    /**
+     * The SGFLexer counterpart of readLeaf(StreamTokenizer, ParseContext).
+     * <p>
+     * On a lazy load only the info tokens are read, the other properties are
+     * skipped and their offsets go into a lazily loaded SGFLeaf.
+     *
+     * @param lexer   - The SGFLexer from which to read an SGF node.
+     * @param context - The state of the load.
+     */
+    private void readLeaf(SGFLexer lexer, ParseContext context)
+            throws IOException, SGFException {
+        SGFToken sgfToken;
+        int[] offsets = null;
+        int count = 0;
+
+        int token;
+
+        while ((token = lexer.nextToken()) == SGFLexer.TT_PROPERTY) {
+            if (context.mSource != null && !context.mTokens.isInfo(lexer.getPropertyKey())) {
+                if (offsets == null)
+                    offsets = new int[2];
+                else if (count == offsets.length)
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = lexer.getPropertyOffset();
+
+                while (lexer.nextValue())
+                    lexer.skipValue();
+            } else if ((sgfToken = readToken(lexer, context.mTokens)) != null)
+                context.mHandler.property(sgfToken);
+        }
+
+        if (token != SGFLexer.TT_EOF)
+            lexer.pushBack();
+
+        if (count > 0)
+            context.mBuilder.addLeaf(new SGFLeaf(context.mSource,
+                    count == offsets.length ? offsets : Arrays.copyOf(offsets, count)));
     }
 
     /**
@@ -279,6 +1056,9 @@ public class SGFLoader {
      * In order to support importing of game types other than go, I have made this
      * method abstract. See implementations in derived classes. (Barry 2007)
      * <p>
+     * Only Lexer.STREAM_TOKENIZER loads call this method.  Overriding it makes
+     * STREAM_TOKENIZER the default lexer of the subclass.
+     * <p>
      * Barry: I would really like this method to be Abstract, but jigo classes need to use this
      * <p>
      *
@@ -286,130 +1066,15 @@ public class SGFLoader {
      * @return An SGFToken representing a piece of information about the game.
      */
     protected SGFToken readToken(StreamTokenizer st) throws IOException, SGFException {
-        SGFToken token;
-        String tokenName = st.sval.toUpperCase();
+        return readToken(st, mTokens);
+    }
 
-        // Black and White moves are the most common token in an SGF file.
-        //
-        if (tokenName.equals("B") || tokenName.equals("BLACK"))
-            token = new BlackMoveToken();
-        else if (tokenName.equals("W") || tokenName.equals("WHITE"))
-            token = new WhiteMoveToken();
-
-            // Comments, notes, and figures are next most common.
-            //
-        else if (tokenName.equals("C") || tokenName.equals("COMMENT"))
-            token = new CommentToken();
-        else if (tokenName.equals("N") || tokenName.equals("NAME"))
-            token = new NodeNameToken();
-
-            // Tokens which apply to a leaf are next most common (board mark-up,
-            // estimated score, etc.).
-            //
-        else if (tokenName.equals("AR"))
-            token = new ArrowToken();
-        else if (tokenName.equals("CR"))
-            token = new CircleToken();
-        else if (tokenName.equals("SQ"))
-            token = new SquareToken();
-        else if (tokenName.equals("TR"))
-            token = new TriangleToken();
-        else if (tokenName.equals("LB"))
-            token = new LabelToken();
-        else if (tokenName.equals("MN"))
-            token = new MoveNumberToken();
-        else if (tokenName.equals("LN"))
-            token = new LineToken();
-        else if (tokenName.equals("DD"))
-            token = new DimToken();
-        else if (tokenName.equals("SL"))
-            token = new SelectedToken();
-        else if (tokenName.equals("MA"))
-            token = new MarkToken();
-
-            // Adding black moves and white moves is typically done at the beginning
-            // of a game (initial board position).
-            //
-        else if (tokenName.equals("AB") || tokenName.equals("ADDBLACK"))
-            token = new AddBlackToken();
-        else if (tokenName.equals("AW") || tokenName.equals("ADDWHITE"))
-            token = new AddWhiteToken();
-        else if (tokenName.equals("AE") || tokenName.equals("ADDEMPTY"))
-            token = new AddEmptyToken();
-
-            // Ko move, illegal capture, used mostly at the end of the game.
-            //
-        else if (tokenName.equals("KO"))
-            token = new KoToken();
-
-            // Lastly, tokens that belong to the first leaf of the first variation
-            // appear once.  These are intentionally placed in this position as a
-            // standard convention for JiGo's SGF API.
-            //
-        else if (tokenName.equals("FF"))
-            token = new FileFormatToken();
-        else if (tokenName.equals("AP"))
-            token = new ApplicationToken();
-        else if (tokenName.equals("GM") || tokenName.equals("GAME"))
-            token = new GameTypeToken();
-        else if (tokenName.equals("CA"))
-            token = new CharsetToken();
-        else if (tokenName.equals("SZ") || tokenName.equals("SIZE"))
-            token = new SizeToken();
-        else if (tokenName.equals("KM") || tokenName.equals("KOMI"))
-            token = new KomiToken();
-        else if (tokenName.equals("HA") || tokenName.equals("HANDICAP"))
-            token = new HandicapToken();
-        else if (tokenName.equals("PW") || tokenName.equals("PLAYERWHITE"))
-            token = new WhiteNameToken();
-        else if (tokenName.equals("PB") || tokenName.equals("PLAYERBLACK"))
-            token = new BlackNameToken();
-        else if (tokenName.equals("WR") || tokenName.equals("WHITERANK"))
-            token = new WhiteRankToken();
-        else if (tokenName.equals("BR") || tokenName.equals("BLACKRANK"))
-            token = new BlackRankToken();
-        else if (tokenName.equals("WT") || tokenName.equals("WHITETEAM"))
-            token = new WhiteTeamToken();
-        else if (tokenName.equals("BT") || tokenName.equals("BLACKTEAM"))
-            token = new BlackTeamToken();
-        else if (tokenName.equals("DT") || tokenName.equals("DATE"))
-            token = new DateToken();
-        else if (tokenName.equals("RE") || tokenName.equals("RESULT"))
-            token = new ResultToken();
-        else if (tokenName.equals("TM") || tokenName.equals("TIME"))
-            token = new TimeLimitToken();
-        else if (tokenName.equals("BL"))
-            token = new BlackTimeToken();
-        else if (tokenName.equals("WL"))
-            token = new WhiteTimeToken();
-        else if (tokenName.equals("OB"))
-            token = new BlackStonesLeftToken();
-        else if (tokenName.equals("OW"))
-            token = new WhiteStonesLeftToken();
-        else if (tokenName.equals("PC"))
-            token = new PlaceToken();
-        else if (tokenName.equals("EV") || tokenName.equals("EVENT"))
-            token = new EventToken();
-        else if (tokenName.equals("RO") || tokenName.equals("ROUND"))
-            token = new RoundToken();
-        else if (tokenName.equals("SO") || tokenName.equals("SOURCE"))
-            token = new SourceToken();
-        else if (tokenName.equals("AN"))
-            token = new AnnotationToken();
-        else if (tokenName.equals("US"))
-            token = new UserToken();
-        else if (tokenName.equals("GC") || tokenName.equals("TC"))
-            token = new GameCommentToken();
-        else if (tokenName.equals("RU"))
-            token = new RuleToken();
-        else if (tokenName.equals("GN") || tokenName.equals("TE") || tokenName.equals("GAMENAME"))
-            token = new GameNameToken();
-
-            // If all else fails, just read it as a generic Text token (as opposed to
-            // letting the SGF parsing fail for what might be something as
-            // insignificant as an SGF token name typo).
-        else
-            token = new TextToken();
+    /**
+     * Reads an SGF token with the factories of the given token table, the one
+     * taken when the load started.
+     */
+    private static SGFToken readToken(StreamTokenizer st, SGFTokenTable tokens) throws IOException, SGFException {
+        SGFToken token = createToken(SGFLexer.propertyKey(st.sval), tokens);
 
         // Now that we know what type of token we have, ask it to parse itself.
         // Most of the parsing is done by the TextToken class.  All tokens are
@@ -420,6 +1085,48 @@ public class SGFLoader {
         return token;
     }
 
+    /**
+     * Reads an SGF token, provided an SGFLexer positioned right after the
+     * token's property name.
+     *
+     * @param lexer  - The SGFLexer from which to read an SGF token.
+     * @param tokens - The token table taken when the load started.
+     * @return An SGFToken representing a piece of information about the game.
+     */
+    static SGFToken readToken(SGFLexer lexer, SGFTokenTable tokens) throws IOException, SGFException {
+        SGFToken token = createToken(lexer.getPropertyKey(), tokens);
+
+        token.parse(lexer);
+
+        return token;
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(is.available(), 8192));
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates an empty SGFToken for a property key.
+     *
+     * @param key    - The packed property name, see SGFLexer.propertyKey().
+     * @param tokens - The registered tokens to look the property up in.
+     * @return The SGFToken subclass registered for the property, TextToken if unknown.
+     */
+    private static SGFToken createToken(long key, SGFTokenTable tokens) {
+        TokenFactory factory = tokens.get(key);
+
+        // If all else fails, just read it as a generic Text token (as opposed to
+        // letting the SGF parsing fail for what might be something as
+        // insignificant as an SGF token name typo).
+        return factory != null ? factory.create() : new TextToken();
+    }
+
     /**
      * Changes the settings of the given StreamTokenizer to make parsing the
      * SGF easier.
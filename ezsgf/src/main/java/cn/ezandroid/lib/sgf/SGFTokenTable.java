@@ -0,0 +1,138 @@
+package cn.ezandroid.lib.sgf;
+
+import cn.ezandroid.lib.sgf.tokens.InfoToken;
+
+/**
+ * Maps packed property keys (see {@link SGFLexer#propertyKey(CharSequence)})
+ * to token factories.
+ * <p>
+ * One and two letter names, which is nearly every property in an SGF file,
+ * index a plain array.  Longer names (FF[3] spellings like "ADDBLACK" or
+ * private properties) go through a small open addressing table.
+ * <p>
+ * The table also remembers which properties create InfoTokens, so a lazy load
+ * can tell game information from leaf content without creating the token.
+ */
+final class SGFTokenTable {
+
+    private static final int SHORT_KEYS = 1 << 10;
+
+    private final SGFLoader.TokenFactory[] mShortFactories;
+    private final boolean[] mShortInfos;
+
+    private long[] mKeys;
+    private SGFLoader.TokenFactory[] mFactories;
+    private boolean[] mInfos;
+    private int mSize;
+
+    SGFTokenTable() {
+        mShortFactories = new SGFLoader.TokenFactory[SHORT_KEYS];
+        mShortInfos = new boolean[SHORT_KEYS];
+        mKeys = new long[16];
+        mFactories = new SGFLoader.TokenFactory[16];
+        mInfos = new boolean[16];
+    }
+
+    private SGFTokenTable(SGFTokenTable other) {
+        mShortFactories = other.mShortFactories.clone();
+        mShortInfos = other.mShortInfos.clone();
+        mKeys = other.mKeys.clone();
+        mFactories = other.mFactories.clone();
+        mInfos = other.mInfos.clone();
+        mSize = other.mSize;
+    }
+
+    SGFTokenTable copy() {
+        return new SGFTokenTable(this);
+    }
+
+    SGFLoader.TokenFactory get(long key) {
+        if (key < SHORT_KEYS) {
+            return key > 0 ? mShortFactories[(int) key] : null;
+        }
+
+        int i = find(key);
+        return i >= 0 ? mFactories[i] : null;
+    }
+
+    /**
+     * Returns true if the property creates an InfoToken.
+     */
+    boolean isInfo(long key) {
+        if (key < SHORT_KEYS) {
+            return key > 0 && mShortInfos[(int) key];
+        }
+
+        int i = find(key);
+        return i >= 0 && mInfos[i];
+    }
+
+    private int find(long key) {
+        int mask = mKeys.length - 1;
+        int i = indexOf(key, mask);
+        long k;
+        while ((k = mKeys[i]) != 0) {
+            if (k == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    void put(String name, SGFLoader.TokenFactory factory) {
+        long key = SGFLexer.propertyKey(name);
+        if (key <= 0) {
+            throw new IllegalArgumentException("Not a valid property name: " + name);
+        }
+
+        boolean info = factory.create() instanceof InfoToken;
+
+        if (key < SHORT_KEYS) {
+            mShortFactories[(int) key] = factory;
+            mShortInfos[(int) key] = info;
+            return;
+        }
+
+        if ((mSize + 1) * 2 > mKeys.length) {
+            grow();
+        }
+        int mask = mKeys.length - 1;
+        int i = indexOf(key, mask);
+        while (mKeys[i] != 0 && mKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (mKeys[i] == 0) {
+            mSize++;
+        }
+        mKeys[i] = key;
+        mFactories[i] = factory;
+        mInfos[i] = info;
+    }
+
+    private void grow() {
+        long[] keys = mKeys;
+        SGFLoader.TokenFactory[] factories = mFactories;
+        boolean[] infos = mInfos;
+        mKeys = new long[keys.length * 2];
+        mFactories = new SGFLoader.TokenFactory[keys.length * 2];
+        mInfos = new boolean[keys.length * 2];
+        int mask = mKeys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] != 0) {
+                int i = indexOf(keys[j], mask);
+                while (mKeys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                mKeys[i] = keys[j];
+                mFactories[i] = factories[j];
+                mInfos[i] = infos[j];
+            }
+        }
+    }
+
+    private static int indexOf(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -20,22 +20,28 @@
 package cn.ezandroid.lib.sgf;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
 
 /**
  * Contains an entire game tree.  Game trees are typically read in from an SGF
  * file, but this isn't a requirement -- they could be generated from a
  * game that is being played.
+ * <p>
+ * Leaves and variations are kept in array lists, so the index based
+ * getNewListLeaves(int) and getNewListTrees(int) don't walk the list.  Most
+ * trees have no variations and don't allocate a list for them.
  */
 public final class SGFTree implements Serializable {
 
-    private static final long serialVersionUID = 42L;
+    private static final long serialVersionUID = 43L;
 
     private SGFTree mParentTree;
-    private LinkedList<SGFLeaf> mLeaves = new LinkedList<>();
-    private LinkedList<SGFTree> mVariations = new LinkedList<>();
+    private ArrayList<SGFLeaf> mLeaves = new ArrayList<>();
+    private ArrayList<SGFTree> mVariations;
 
     private ListIterator<SGFLeaf> mLeavesIterator;
     private ListIterator<SGFTree> mVariationIterator;
@@ -64,6 +70,21 @@ public final class SGFTree implements Serializable {
             mLeaves.add(leaf);
     }
 
+    /**
+     * Drops the spare capacity of the leaves and variations lists, done by
+     * the loader once a tree has been read.
+     */
+    public void trimToSize() {
+        mLeaves.trimToSize();
+        if (mVariations != null) {
+            mVariations.trimToSize();
+        }
+    }
+
+    private List<SGFTree> variations() {
+        return mVariations != null ? mVariations : Collections.<SGFTree>emptyList();
+    }
+
     /**
      * Returns the list of leaves at this level of the game tree.
      *
@@ -121,7 +142,7 @@ public final class SGFTree implements Serializable {
      * @return The variations at this level of the game tree.
      */
     public int getTreeCount() {
-        return mVariations.size();
+        return mVariations != null ? mVariations.size() : 0;
     }
 
     /**
@@ -132,6 +153,9 @@ public final class SGFTree implements Serializable {
     public void addTree(SGFTree tree) {
         if (tree != null) {
             tree.setParentTree(this);
+            if (mVariations == null) {
+                mVariations = new ArrayList<>(2);
+            }
             mVariations.add(tree);
         }
     }
@@ -142,22 +166,22 @@ public final class SGFTree implements Serializable {
      * @return A list of sub-trees at this variation level, or null if none.
      */
     public Iterator<SGFTree> getTrees() {
-        return mVariations.iterator();
+        return variations().iterator();
     }
 
     public ListIterator<SGFTree> getListTrees() {
         if (mVariationIterator == null) {
-            mVariationIterator = mVariations.listIterator();
+            mVariationIterator = variations().listIterator();
         }
         return mVariationIterator;
     }
 
     public ListIterator<SGFTree> getNewListTrees() {
-        return mVariations.listIterator();
+        return variations().listIterator();
     }
 
     public ListIterator<SGFTree> getNewListTrees(int index) {
-        return mVariations.listIterator(index);
+        return variations().listIterator(index);
     }
 }
 
@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import cn.ezandroid.lib.sgf.Point;
+import cn.ezandroid.lib.sgf.SGFLexer;
 
 /**
  * 标签标记
@@ -67,6 +68,17 @@ public class LabelToken extends MarkupToken {
         return (st.nextToken() == (int) ']');
     }
 
+    protected boolean parsePoint(SGFLexer lexer)
+            throws IOException {
+        if (!super.parsePoint(lexer))
+            return false;
+
+        if (lexer.valueLength() > 3 && lexer.valueAt(2) == ':') {
+            mLabelMap.put(new Point(getX(), getY()), lexer.valueString(3));
+        }
+        return true;
+    }
+
     public String getLabel(Point point) {
         return mLabelMap.get(point);
     }
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.StreamTokenizer;
 
 import cn.ezandroid.lib.sgf.SGFException;
+import cn.ezandroid.lib.sgf.SGFLexer;
 
 /**
  * Represents a token that has a number.  The number is a float because
@@ -48,6 +49,18 @@ public abstract class NumberToken extends TextToken {
         if (!super.parseContent(st))
             return false;
 
+        return parseNumber();
+    }
+
+    protected boolean parseContent(SGFLexer lexer)
+            throws IOException, SGFException {
+        if (!super.parseContent(lexer))
+            return false;
+
+        return parseNumber();
+    }
+
+    private boolean parseNumber() {
         try {
             setNumber(Float.valueOf(getText()));
         } catch (NumberFormatException nfe) {
@@ -22,16 +22,25 @@ package cn.ezandroid.lib.sgf.tokens;
 import java.io.IOException;
 import java.io.StreamTokenizer;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
 import cn.ezandroid.lib.sgf.Point;
+import cn.ezandroid.lib.sgf.SGFLexer;
 
 /**
  * A list of points.
+ * <p>
+ * The points are packed into a short array, one short of (x &lt;&lt; 8) | y
+ * each, so setups like AB and AW with hundreds of points don't create an
+ * object per point.  Read them with getPointCount(), getPointX(int) and
+ * getPointY(int); getPoints() creates Point objects on the fly.
  */
 public class PlacementListToken extends PlacementToken {
 
-    private LinkedList<Point> mPoints = new LinkedList<>();
+    private static final short[] NO_POINTS = new short[0];
+
+    private short[] mPoints = NO_POINTS;
+    private int mPointCount;
 
     public PlacementListToken() { }
 
@@ -40,9 +49,8 @@ public class PlacementListToken extends PlacementToken {
         do {
             // Read a point in the list of points (of which there must be at least one),
             // then add it to our internal list of points.
-            // need to make a copy. otherwise we end up adding the same point to the list each time.
             if (parsePoint(st)) {
-                addPoint(new Point(getPoint()));
+                addPoint(getX(), getY());
             }
         } while (st.nextToken() == (int) '[');
 
@@ -51,12 +59,82 @@ public class PlacementListToken extends PlacementToken {
         return true;
     }
 
-    private void addPoint(Point point) {
-        mPoints.add(point);
+    protected boolean parseContent(SGFLexer lexer)
+            throws IOException {
+        do {
+            if (parsePoint(lexer)) {
+                addPoint(getX(), getY());
+            }
+        } while (lexer.nextValue());
+
+        return true;
+    }
+
+    private void addPoint(byte x, byte y) {
+        if (mPointCount == mPoints.length) {
+            // Most lists are a single move, so only grow quickly for long lists
+            short[] points = new short[mPointCount < 4 ? mPointCount + 1 : mPointCount * 2];
+            System.arraycopy(mPoints, 0, points, 0, mPointCount);
+            mPoints = points;
+        }
+        mPoints[mPointCount++] = (short) ((x << 8) | (y & 0xFF));
+    }
+
+    /**
+     * Returns the number of points in the list.
+     */
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * Returns the X coordinate of the point at the given index.
+     */
+    public byte getPointX(int index) {
+        return (byte) (mPoints[index] >> 8);
+    }
+
+    /**
+     * Returns the Y coordinate of the point at the given index.
+     */
+    public byte getPointY(int index) {
+        return (byte) mPoints[index];
     }
 
+    /**
+     * Returns the points of the list as Point objects, a new one for each
+     * point.  Prefer getPointX(int) and getPointY(int) in loops.
+     */
     public Iterator<Point> getPoints() {
-        return mPoints.iterator();
+        return new Iterator<Point>() {
+
+            private int mIndex;
+            private boolean mCanRemove;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < mPointCount;
+            }
+
+            @Override
+            public Point next() {
+                if (mIndex >= mPointCount) {
+                    throw new NoSuchElementException();
+                }
+                mCanRemove = true;
+                return new Point(getPointX(mIndex), getPointY(mIndex++));
+            }
+
+            @Override
+            public void remove() {
+                if (!mCanRemove) {
+                    throw new IllegalStateException();
+                }
+                mCanRemove = false;
+                mIndex--;
+                mPointCount--;
+                System.arraycopy(mPoints, mIndex + 1, mPoints, mIndex, mPointCount - mIndex);
+            }
+        };
     }
 }
-
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.StreamTokenizer;
 
 import cn.ezandroid.lib.sgf.Point;
+import cn.ezandroid.lib.sgf.SGFLexer;
 
 /**
  * A token that contains the point at which is was played, or the point
@@ -41,6 +42,11 @@ public class PlacementToken extends SGFToken {
         return parsePoint(st);
     }
 
+    protected boolean parseContent(SGFLexer lexer)
+            throws IOException {
+        return parsePoint(lexer);
+    }
+
     /**
      * Parses a point, sets the X and Y values of the PlacementToken
      * accordingly.  This can be called repeatedly for Tokens which take
@@ -89,6 +95,23 @@ public class PlacementToken extends SGFToken {
         return (st.nextToken() == (int) ']');
     }
 
+    /**
+     * The lexer counterpart of parsePoint(StreamTokenizer).  An empty value
+     * is a pass and leaves the point as it is.
+     */
+    protected boolean parsePoint(SGFLexer lexer)
+            throws IOException {
+        int length = lexer.readValue();
+        if (length < 0)
+            return false;
+
+        if (length >= 2) {
+            setX(coordFromChar(lexer.valueAt(0)));
+            setY(coordFromChar(lexer.valueAt(1)));
+        }
+        return true;
+    }
+
     /**
      * Given a token whose value ranges between 'a' through 'z', or 'A'
      * through 'Z', this method returns the appropriate row/column value.  If
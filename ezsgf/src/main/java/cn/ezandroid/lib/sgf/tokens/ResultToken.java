@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.StreamTokenizer;
 
 import cn.ezandroid.lib.sgf.SGFException;
+import cn.ezandroid.lib.sgf.SGFLexer;
 
 /**
  * 对局结果 (jigo, winner: score, resignation, time).
@@ -67,6 +68,18 @@ public class ResultToken extends TextToken implements InfoToken {
         if (!super.parseContent(st))
             return false;
 
+        return parseResult();
+    }
+
+    protected boolean parseContent(SGFLexer lexer)
+            throws IOException, SGFException {
+        if (!super.parseContent(lexer))
+            return false;
+
+        return parseResult();
+    }
+
+    private boolean parseResult() {
         String result = getText();
         if (result.isEmpty()) {
             return false;
@@ -24,6 +24,7 @@ import java.io.Serializable;
 import java.io.StreamTokenizer;
 
 import cn.ezandroid.lib.sgf.SGFException;
+import cn.ezandroid.lib.sgf.SGFLexer;
 
 /**
  * The big daddy of all SGFTokens.  All SGFTokens are subclassed from this
@@ -80,5 +81,31 @@ public abstract class SGFToken implements Serializable {
      */
     protected abstract boolean parseContent(StreamTokenizer st)
             throws IOException, SGFException;
+
+    /**
+     * Called to parse itself from an SGFLexer, the lexer counterpart of
+     * parse(StreamTokenizer).
+     *
+     * @param lexer - The SGF lexer from which values can be read.
+     */
+    public boolean parse(SGFLexer lexer)
+            throws IOException, SGFException {
+        if (!lexer.nextValue())
+            return false;
+
+        return parseContent(lexer);
+    }
+
+    /**
+     * Subclasses read all of the content and the final closing bracket from
+     * the lexer.  Tokens that don't know about the lexer simply skip their
+     * value.
+     *
+     * @param lexer - The SGF lexer from which values can be read.
+     */
+    protected boolean parseContent(SGFLexer lexer)
+            throws IOException, SGFException {
+        return lexer.skipValue();
+    }
 }
 
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.StreamTokenizer;
 
 import cn.ezandroid.lib.sgf.SGFException;
+import cn.ezandroid.lib.sgf.SGFLexer;
 
 /**
  * A generic token.  This class is responsible for parsing simple text --
@@ -104,6 +105,16 @@ public class TextToken extends SGFToken {
         return false;
     }
 
+    protected boolean parseContent(SGFLexer lexer)
+            throws IOException, SGFException {
+        String text = lexer.readText();
+        if (text == null)
+            return false;
+
+        setText(text);
+        return true;
+    }
+
     /**
      * Returns the entire text between the opening '[' and closing ']'.
      */
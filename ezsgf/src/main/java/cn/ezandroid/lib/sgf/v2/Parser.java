@@ -1,19 +1,26 @@
 package cn.ezandroid.lib.sgf.v2;
 
-import android.text.TextUtils;
-
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import cn.ezandroid.lib.sgf.v2.parser.Game;
 import cn.ezandroid.lib.sgf.v2.parser.GameNode;
 
 public class Parser {
 
-    private final String mOriginalGame;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CharSequence mOriginalGame;
 
     // http://www.red-bean.com/sgf/properties.html
     private static final Set<String> sGeneralProps = new HashSet<>();
@@ -223,29 +230,117 @@ public class Parser {
         sNodeProps.add("TE");
     }
 
+    // the names of the known properties, so every node shares the same strings
+    private static final Map<String, String> sKeys = new HashMap<>();
+    private static final String[] sShortKeys = new String[27 * 27];
+
+    static {
+        for (String key : sGeneralProps) {
+            sKeys.put(key, key);
+        }
+        for (String key : sNodeProps) {
+            sKeys.put(key, key);
+        }
+        for (String key : new String[]{"AB", "AW", "C", "N"}) {
+            sKeys.put(key, key);
+        }
+        for (String key : sKeys.keySet()) {
+            if (key.length() <= 2) {
+                sShortKeys[shortKeyIndex(key, 0, key.length() - 1)] = key;
+            }
+        }
+    }
+
     private Stack<GameNode> mTreeStack = new Stack<>();
 
-    public Parser(String game) {
+    private final Reader mReader;
+    private boolean mKeepOriginalSgf;
+
+    // the part of the stream that is being parsed
+    private char[] mBuffer;
+    private int mLimit;
+    private boolean mEof;
+    private StringBuilder mOriginalSgf;
+
+    public Parser(CharSequence game) {
         mOriginalGame = game;
+        mReader = null;
+    }
+
+    /**
+     * Parses the game as it is read from the given reader, a chunk at a time.
+     * The reader isn't closed.
+     */
+    public Parser(Reader reader) {
+        mOriginalGame = null;
+        mReader = reader;
+    }
+
+    /**
+     * Parses the game as it is read from the given channel, a chunk at a time.
+     * The channel isn't closed.
+     */
+    public Parser(ReadableByteChannel channel, Charset charset) {
+        this(Channels.newReader(channel, charset.newDecoder(), -1));
+    }
+
+    /**
+     * Sets whether a game read from a stream keeps its text, see
+     * {@link Game#getOriginalSgf()}. Off by default, as it doubles the memory
+     * a game takes. A game parsed from a string always keeps it.
+     */
+    public void setKeepOriginalSgf(boolean keepOriginalSgf) {
+        mKeepOriginalSgf = keepOriginalSgf;
+    }
+
+    public boolean isKeepOriginalSgf() {
+        return mKeepOriginalSgf;
     }
 
     public Game parse() {
-        Game game = new Game(mOriginalGame);
+        Game game;
+        CharSequence sgf;
+        if (mReader == null) {
+            sgf = mOriginalGame;
+            game = new Game(sgf.toString());
+        } else {
+            mBuffer = new char[BUFFER_SIZE];
+            mOriginalSgf = mKeepOriginalSgf ? new StringBuilder() : null;
+            sgf = read(0);
+            game = new Game();
+        }
 
         // the root node
         GameNode parentNode = null;
-        // replace token delimiters
 
         int moveNo = 1;
         int id = 10000;
 
-        for (int i = 0; i < mOriginalGame.length(); i++) {
-            char chr = mOriginalGame.charAt(i);
-            if (';' == chr && (i == 0 || mOriginalGame.charAt(i - 1) != '\\')) {
-                String nodeContents = consumeUntil(mOriginalGame, i);
-                i = i + nodeContents.length();
+        int length = sgf.length();
+        char prev = 0;
+        for (int i = 0; ; i++) {
+            if (i >= length) {
+                if (mReader == null || mEof) {
+                    break;
+                }
+                sgf = read(i);
+                length = sgf.length();
+                i = -1;
+                continue;
+            }
 
-                GameNode node = parseToken(nodeContents, parentNode, game, id++);
+            char chr = sgf.charAt(i);
+            if (';' == chr && prev != '\\') {
+                int end = findNodeEnd(sgf, i + 1, length);
+                while (end == length && mReader != null && !mEof) {
+                    // the node goes on past what we've read so far
+                    sgf = read(i);
+                    length = sgf.length();
+                    i = 0;
+                    end = findNodeEnd(sgf, 1, length);
+                }
+
+                GameNode node = parseNode(sgf, i + 1, end, parentNode, game, id++);
                 if (node.isMove()) {
                     node.setMoveNo(moveNo++);
                 }
@@ -257,6 +352,10 @@ public class Parser {
                     parentNode.addChild(node);
                     parentNode = node;
                 }
+
+                // carry on with the char that ended the node
+                i = end - 1;
+                chr = sgf.charAt(i);
             } else if ('(' == chr && parentNode != null) {
                 mTreeStack.push(parentNode);
             } else if (')' == chr) {
@@ -265,124 +364,292 @@ public class Parser {
                     moveNo = parentNode.getMoveNo() + 1;
                 }
             }
+            prev = chr;
         }
 
+        if (mOriginalSgf != null) {
+            mOriginalSgf.append(mBuffer, 0, mLimit);
+            game.setOriginalSgf(mOriginalSgf.toString());
+        }
+        mBuffer = null;
+        mOriginalSgf = null;
+
         return game;
     }
 
-    private String consumeUntil(String gameStr, int i) {
-        StringBuilder rtrn = new StringBuilder();
-        boolean insideComment = false;
-        boolean insideValue = false;
-        for (int j = i + 1; j < gameStr.length(); j++) {
-            char chr = gameStr.charAt(j);
-            if (insideComment) {
-                if (']' == chr && gameStr.charAt(j - 1) != '\\') {
-                    insideComment = false;
-                }
-                rtrn.append(chr);
-            } else {
-                if ('C' == chr && '[' == gameStr.charAt(j + 1)) {
-                    insideComment = true;
-                    rtrn.append(chr);
-                } else if ('[' == chr) {
-                    insideValue = true;
-                    rtrn.append(chr);
-                } else if (']' == chr) {
-                    insideValue = false;
-                    rtrn.append(chr);
-                }
-                // while inside the value lets consume everything -
-                // even chars that otherwise would have special meaning
-                // like ;()
-                else if (insideValue) {
-                    rtrn.append(chr);
-                } else if ('\n' == chr) {
-                    // skip newlines
-                } else if ('\r' == chr) {
-                    // skip newlines
-                } else if (';' != chr && ')' != chr && '(' != chr) {
-                    rtrn.append(chr);
-                } else {
+    /**
+     * Drops the chars before keep from the buffer and fills the rest from the
+     * reader, growing the buffer if keep is at its start. Returns the chars in
+     * the buffer.
+     */
+    private CharSequence read(int keep) {
+        if (mOriginalSgf != null) {
+            mOriginalSgf.append(mBuffer, 0, keep);
+        }
+        int remaining = mLimit - keep;
+        if (remaining == mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+        } else {
+            System.arraycopy(mBuffer, keep, mBuffer, 0, remaining);
+        }
+        mLimit = remaining;
+
+        try {
+            // fill it up, so a node that's read in several goes is
+            // scanned again at most a few times
+            while (mLimit < mBuffer.length) {
+                int read = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+                if (read < 0) {
+                    mEof = true;
                     break;
                 }
+                mLimit += read;
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return rtrn.toString().trim();
+        return CharBuffer.wrap(mBuffer, 0, mLimit);
     }
 
-    private GameNode parseToken(String token, final GameNode parentNode, Game game, int id) {
+    /**
+     * Returns the index of the ';', '(' or ')' ending the node that starts at
+     * the given index, or the end if there is none. Inside a value these chars
+     * don't end the node.
+     */
+    private static int findNodeEnd(CharSequence sgf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char chr = sgf.charAt(i);
+            if ('[' == chr) {
+                int close = findValueEnd(sgf, i, end);
+                if (close < 0) {
+                    return end;
+                }
+                i = close;
+            } else if (';' == chr || '(' == chr || ')' == chr) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private GameNode parseNode(CharSequence sgf, int start, int end, final GameNode parentNode, Game game, int id) {
         GameNode rtrnNode = new GameNode(parentNode);
         rtrnNode.setId(id);
-        // replace delimiters
-        token = Parser.prepareToken("'" + token + "'");
-
-        // lets find all the properties
-        Pattern p = Pattern.compile("([a-zA-Z]{1,})((\\[[^\\]]*\\]){1,})");
-        Matcher m = p.matcher(token);
-        while (m.find()) {
-            String group = m.group();
-            if (group.length() == 0)
+
+        // lets find all the properties, a key is the letters right before a '['
+        // and its value runs up to the first ']' that isn't escaped. More values
+        // may follow right after that one. Line breaks outside of the values
+        // don't count.
+        int from = start;
+        for (int open = start; open < end; open++) {
+            if (sgf.charAt(open) != '[') {
+                continue;
+            }
+            int keyEnd = skipLineBreaksBack(sgf, open - 1, from);
+            if (keyEnd < from || !isLetter(sgf.charAt(keyEnd))) {
                 continue;
+            }
+
+            int close = findValueEnd(sgf, open, end);
+            if (close < 0) {
+                break;
+            }
+            int next;
+            int nextClose;
+            while ((next = skipLineBreaks(sgf, close + 1, end)) < end && sgf.charAt(next) == '['
+                    && (nextClose = findValueEnd(sgf, next, end)) >= 0) {
+                close = nextClose;
+            }
 
-            String key = m.group(1);
-            String value = m.group(2);
-            if (value.startsWith("[")) {
-                value = value.substring(1, value.length() - 1);
+            int keyStart = keyEnd;
+            int before;
+            while ((before = skipLineBreaksBack(sgf, keyStart - 1, from)) >= from && isLetter(sgf.charAt(before))) {
+                keyStart = before;
             }
 
-            value = Parser.normaliseToken(value);
+            String key = readKey(sgf, keyStart, keyEnd);
 
             // these properties require some cleanup
             if ("AB".equals(key) || "AW".equals(key)) {
-                // these come in as a list of coordinates while the first [ is cut off
-                // and also the last ], easy to split by ][
-                String[] list = value.split("\\]\\[");
+                // these come in as a list of coordinates, join them by ','
                 // if the parent node is null then these are
                 // game properties, if not null then the node properties
+                String value = readValues(sgf, open, close, ",", true);
                 if (parentNode == null) {
-                    game.addProperty(key, TextUtils.join(",", list));
+                    game.addProperty(key, value);
                 } else {
-                    rtrnNode.addProperty(key, TextUtils.join(",", list));
+                    rtrnNode.addProperty(key, value);
                 }
             } else if ("C".equals(key) || "N".equals(key)) {
                 // nodes and the game can have a comment or name
                 // if parent is null it is a game property
+                String value = readValues(sgf, open, close, "][", false);
                 if (parentNode == null) {
                     game.addProperty(key, value);
                 } else {
                     rtrnNode.addProperty(key, value);
                 }
             } else if (sGeneralProps.contains(key) || sNodeProps.contains(key)) {
+                String value = cleanValue(readValues(sgf, open, close, "][", false));
                 boolean addedToGame = false;
                 if (sGeneralProps.contains(key) && parentNode == null) {
-                    game.addProperty(key, cleanValue(value));
+                    game.addProperty(key, value);
                     addedToGame = true;
                 }
 
                 if (sNodeProps.contains(key) && !addedToGame) {
-                    rtrnNode.addProperty(key, cleanValue(value));
+                    rtrnNode.addProperty(key, value);
                 }
             } else {
-                // log.error("Not able to parse property '" + m.group(1) + "'=" + m.group(2) + ". Found it from " + m.group(0));
-                throw new SgfParseException("Ignoring property '" + m.group(1) + "'=" + m.group(2) + " Found it from '" + m.group(0) + "'");
+                throw new SgfParseException("Ignoring property '" + key + "'=" + sgf.subSequence(open, close + 1)
+                        + " Found it from '" + sgf.subSequence(keyStart, close + 1) + "'");
             }
+
+            from = close + 1;
+            open = close;
         }
 
         return rtrnNode;
     }
 
-    private String cleanValue(String value) {
-        String cleaned = value.replaceAll("\\\\;", ";");
-        return cleaned;
+    private static boolean isLetter(char chr) {
+        return (chr >= 'a' && chr <= 'z') || (chr >= 'A' && chr <= 'Z');
     }
 
-    private static String prepareToken(String token) {
-        token = token.replaceAll("\\\\\\[", "@@@@@");
-        token = token.replaceAll("\\\\\\]", "#####");
-        return token;
+    private static boolean isLineBreak(char chr) {
+        return '\n' == chr || '\r' == chr;
+    }
+
+    /**
+     * Returns the first index from i on that isn't a line break, or the end.
+     */
+    private static int skipLineBreaks(CharSequence sgf, int i, int end) {
+        while (i < end && isLineBreak(sgf.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the last index from i back that isn't a line break, or from - 1.
+     */
+    private static int skipLineBreaksBack(CharSequence sgf, int i, int from) {
+        while (i >= from && isLineBreak(sgf.charAt(i))) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index of the ']' closing the value opened at the given index,
+     * -1 if there is none before the end. A backslash escapes the char after
+     * it, so "\]" doesn't close a value but the ']' of "\\]" does.
+     */
+    private static int findValueEnd(CharSequence sgf, int open, int end) {
+        for (int close = open + 1; close < end; close++) {
+            char chr = sgf.charAt(close);
+            if (chr == '\\') {
+                // skip the escaped char, whatever it is
+                close++;
+            } else if (chr == ']') {
+                return close;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a key, which may be broken over lines.
+     */
+    private static String readKey(CharSequence sgf, int keyStart, int keyEnd) {
+        StringBuilder key = null;
+        for (int i = keyStart; i <= keyEnd; i++) {
+            char chr = sgf.charAt(i);
+            if (!isLineBreak(chr)) {
+                if (key != null) {
+                    key.append(chr);
+                }
+            } else if (key == null) {
+                key = new StringBuilder(keyEnd - keyStart);
+                key.append(sgf, keyStart, i);
+            }
+        }
+        if (key == null && keyEnd - keyStart < 2 && isUpperCase(sgf.charAt(keyStart)) && isUpperCase(sgf.charAt(keyEnd))) {
+            String shortKey = sShortKeys[shortKeyIndex(sgf, keyStart, keyEnd)];
+            if (shortKey != null) {
+                return shortKey;
+            }
+        }
+
+        String rtrn = key != null ? key.toString() : sgf.subSequence(keyStart, keyEnd + 1).toString();
+        String shared = sKeys.get(rtrn);
+        return shared != null ? shared : rtrn;
+    }
+
+    private static boolean isUpperCase(char chr) {
+        return chr >= 'A' && chr <= 'Z';
+    }
+
+    /**
+     * Index of a one or two upper case letter key in sShortKeys.
+     */
+    private static int shortKeyIndex(CharSequence key, int keyStart, int keyEnd) {
+        int index = key.charAt(keyStart) - 'A' + 1;
+        if (keyEnd > keyStart) {
+            index = index * 27 + key.charAt(keyEnd) - 'A' + 1;
+        }
+        return index;
+    }
+
+    /**
+     * Reads the values from the '[' at open up to the ']' at close and puts the
+     * separator between them. Like String.split() empty values at the end can
+     * be dropped.
+     */
+    private static String readValues(CharSequence sgf, int open, int close, String separator, boolean dropEmpty) {
+        int valueEnd = findValueEnd(sgf, open, close + 1);
+        if (valueEnd == close) {
+            return sgf.subSequence(open + 1, close).toString();
+        }
+
+        StringBuilder values = new StringBuilder(close - open);
+        int keep = 0;
+        while (true) {
+            values.append(sgf, open + 1, valueEnd);
+            if (open + 1 < valueEnd || !dropEmpty) {
+                keep = values.length();
+            }
+            if (valueEnd == close) {
+                break;
+            }
+            values.append(separator);
+            open = skipLineBreaks(sgf, valueEnd + 1, close);
+            valueEnd = findValueEnd(sgf, open, close + 1);
+        }
+        values.setLength(keep);
+        return values.toString();
+    }
+
+    private static String cleanValue(String value) {
+        int escape = value.indexOf("\\;");
+        if (escape < 0) {
+            return value;
+        }
+
+        StringBuilder cleaned = new StringBuilder(value.length());
+        int start = 0;
+        do {
+            cleaned.append(value, start, escape).append(';');
+            start = escape + 2;
+        } while ((escape = value.indexOf("\\;", start)) >= 0);
+        return cleaned.append(value, start, value.length()).toString();
     }
 
+    /**
+     * Undoes the placeholders older versions of the parser put in for escaped
+     * brackets. The parser doesn't use them anymore.
+     */
+    @Deprecated
     public static String normaliseToken(String token) {
         token = token.replaceAll("@@@@@", "\\\\\\[");
         token = token.replaceAll("#####", "\\\\\\]");
@@ -1,13 +1,14 @@
 package cn.ezandroid.lib.sgf.v2;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 
 import cn.ezandroid.lib.sgf.v2.parser.Game;
@@ -17,40 +18,85 @@ public class Sgf {
     private Parser mParser;
     private Game mGame;
 
-    private Sgf(String sgf) {
-        mParser = new Parser(sgf);
+    private Sgf(Parser parser) {
+        mParser = parser;
         mGame = mParser.parse();
 
         mGame.postProcess();
     }
 
     public static Game createFromString(String gameAsString) {
-        Sgf rtrn = new Sgf(gameAsString);
+        Sgf rtrn = new Sgf(new Parser(gameAsString));
         return rtrn.getGame();
     }
 
+    /**
+     * Reads a UTF-8 game from the stream and closes it. The game doesn't keep
+     * its text.
+     */
     public static Game createFromInputStream(InputStream in) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8").newDecoder()))) {
-            StringBuilder out = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                out.append(line);
-            }
-            Sgf rtrn = new Sgf(out.toString());
-            return rtrn.getGame();
+        return createFromInputStream(in, false);
+    }
+
+    /**
+     * Reads a UTF-8 game from the stream and closes it.
+     */
+    public static Game createFromInputStream(InputStream in, boolean keepOriginalSgf) {
+        try (Reader reader = new InputStreamReader(in, Charset.forName("UTF-8").newDecoder())) {
+            return createFromReader(reader, keepOriginalSgf);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Reads a game from the reader a chunk at a time. The reader isn't closed.
+     */
+    public static Game createFromReader(Reader reader, boolean keepOriginalSgf) {
+        Parser parser = new Parser(reader);
+        parser.setKeepOriginalSgf(keepOriginalSgf);
+        Sgf rtrn = new Sgf(parser);
+        return rtrn.getGame();
+    }
+
+    /**
+     * Reads a game from the channel a chunk at a time. The channel isn't closed.
+     */
+    public static Game createFromChannel(ReadableByteChannel channel, Charset charset, boolean keepOriginalSgf) {
+        Parser parser = new Parser(channel, charset);
+        parser.setKeepOriginalSgf(keepOriginalSgf);
+        Sgf rtrn = new Sgf(parser);
+        return rtrn.getGame();
+    }
+
     public static void writeToFile(Game game, File destination) {
         writeToFile(game, destination, "UTF-8");
     }
 
     public static void writeToFile(Game game, File destination, String encoding) {
-        try (
-                OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(destination), Charset.forName(encoding).newEncoder())) {
-            osw.write(game.getGeneratedSgf());
+        writeToFile(game, destination, encoding, false);
+    }
+
+    /**
+     * Writes the game node by node, gzipped if asked for.
+     */
+    public static void writeToFile(Game game, File destination, String encoding, boolean gzip) {
+        try (SgfWriter writer = new SgfWriter(new FileOutputStream(destination), Charset.forName(encoding), gzip)) {
+            writer.write(game);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the game node by node to the stream, gzipped if asked for. The
+     * stream isn't closed.
+     */
+    public static void writeToStream(Game game, OutputStream out, Charset charset, boolean gzip) {
+        try {
+            SgfWriter writer = new SgfWriter(out, charset, gzip);
+            writer.write(game);
+            writer.finish();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
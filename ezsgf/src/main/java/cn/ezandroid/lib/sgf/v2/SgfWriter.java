@@ -0,0 +1,165 @@
+package cn.ezandroid.lib.sgf.v2;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import cn.ezandroid.lib.sgf.v2.parser.Game;
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+import cn.ezandroid.lib.sgf.v2.parser.Util;
+
+/**
+ * Writes games as SGF, node by node, straight to a Writer or an OutputStream.
+ * Only a small buffer and the variations that are still open are held in
+ * memory, whatever the size of the game. Several games written one after
+ * the other make an SGF collection.
+ * <p>
+ * Values read by the Parser are still in their SGF form and are written as
+ * they are. A value with a ']' that isn't escaped, such as a comment set by
+ * the user, goes through {@link Util#sgfEscapeText(String)} first.
+ */
+public class SgfWriter implements Closeable, Flushable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Writer mWriter;
+    private final GZIPOutputStream mGzip;
+    private int mGames;
+
+    public SgfWriter(Writer writer) {
+        mWriter = new BufferedWriter(writer, BUFFER_SIZE);
+        mGzip = null;
+    }
+
+    /**
+     * @param gzip whether to compress the output, the way .sgf.gz files are
+     */
+    public SgfWriter(OutputStream out, Charset charset, boolean gzip) throws IOException {
+        mGzip = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+        mWriter = new BufferedWriter(new OutputStreamWriter(gzip ? mGzip : out, charset.newEncoder()), BUFFER_SIZE);
+    }
+
+    public void write(Game game) throws IOException {
+        if (mGames++ > 0) {
+            mWriter.write('\n');
+        }
+        mWriter.write('(');
+
+        // lets write all the root node properties
+        Map<String, String> props = game.getProperties();
+        if (props.size() > 0) {
+            mWriter.write(';');
+        }
+        writeProperties(props);
+
+        if (game.getRootNode() != null) {
+            writeNodes(game.getRootNode());
+        }
+
+        mWriter.write(')');
+    }
+
+    private void writeNodes(GameNode startNode) throws IOException {
+        // holds the nodes still to write and the closing brackets
+        // of the variations we are in
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(startNode);
+
+        while (!stack.isEmpty()) {
+            Object next = stack.pop();
+            if (next instanceof String) {
+                mWriter.write((String) next);
+                continue;
+            }
+
+            // write out the node
+            GameNode node = (GameNode) next;
+            mWriter.write(';');
+            writeProperties(node.getProperties());
+            mWriter.write('\n');
+
+            // if we have children then first write out the
+            // getNextNode() and then the rest of the children
+            if (node.hasChildren()) {
+                List<GameNode> children = node.getChildren();
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    pushVariation(stack, children.get(i));
+                }
+                pushVariation(stack, node.getNextNode());
+            }
+            // we can just continue with the next elem
+            else if (node.getNextNode() != null) {
+                stack.push(node.getNextNode());
+            }
+        }
+    }
+
+    private static void pushVariation(Deque<Object> stack, GameNode node) {
+        // popped in reverse
+        stack.push(")\n");
+        stack.push(node);
+        stack.push("(");
+    }
+
+    private void writeProperties(Map<String, String> props) throws IOException {
+        for (Map.Entry<String, String> entry : props.entrySet()) {
+            mWriter.write(entry.getKey());
+            mWriter.write('[');
+            String value = entry.getValue();
+            if (isEscaped(value)) {
+                mWriter.write(value);
+            } else {
+                mWriter.write(Util.sgfEscapeText(value));
+            }
+            mWriter.write(']');
+        }
+    }
+
+    /**
+     * Returns true if every ']' in the value is either escaped or separates
+     * two values, like the "aa:A][bb:B" of a label list.
+     */
+    private static boolean isEscaped(String value) {
+        int close = -1;
+        while ((close = value.indexOf(']', close + 1)) >= 0) {
+            boolean escaped = close > 0 && value.charAt(close - 1) == '\\';
+            boolean separator = close + 1 < value.length() && value.charAt(close + 1) == '[';
+            if (!escaped && !separator) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes out what is buffered, and ends the gzip data, without closing
+     * the underlying stream. Once the gzip data has ended nothing more can be
+     * written.
+     */
+    public void finish() throws IOException {
+        mWriter.flush();
+        if (mGzip != null) {
+            mGzip.finish();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
@@ -34,15 +34,25 @@ public class Group {
     }
 
     public void printGroup() {
+        int width = 19;
+        int height = 19;
+        for (Square square : mStones) {
+            width = Math.max(width, square.x + 1);
+            height = Math.max(height, square.y + 1);
+        }
+        printGroup(width, height);
+    }
+
+    public void printGroup(int width, int height) {
         System.out.println("Print group of size " + mStones.size());
-        Square[][] board = new Square[19][19];
+        Square[][] board = new Square[width][height];
 
         for (Square square : mStones) {
             board[square.x][square.y] = square;
         }
 
-        for (int i = 0; i < 19; i++) {
-            for (int j = 0; j < 19; j++) {
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
                 if (board[i][j] == null) {
                     board[i][j] = new Square(StoneState.EMPTY, i, j);
                 }
@@ -53,7 +63,17 @@ public class Group {
     }
 
     public boolean isDead(VirtualBoard brd) {
-        return isDead(brd.getBoard());
+        for (Square square : mStones) {
+            if (square.x - 1 > -1 && brd.getColor(square.x - 1, square.y) == StoneState.EMPTY)
+                return false;
+            if (square.x + 1 < brd.getWidth() && brd.getColor(square.x + 1, square.y) == StoneState.EMPTY)
+                return false;
+            if (square.y + 1 < brd.getHeight() && brd.getColor(square.x, square.y + 1) == StoneState.EMPTY)
+                return false;
+            if (square.y - 1 > -1 && brd.getColor(square.x, square.y - 1) == StoneState.EMPTY)
+                return false;
+        }
+        return true;
     }
 
     public String toString() {
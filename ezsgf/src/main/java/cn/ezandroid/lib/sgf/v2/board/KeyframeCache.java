@@ -0,0 +1,96 @@
+package cn.ezandroid.lib.sgf.v2.board;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+/**
+ * Positions of a VirtualBoard saved at some of the nodes it went through, so
+ * fastForwardTo can start from the closest one instead of the root. The least
+ * recently used keyframes are dropped once there are more than the maximum.
+ */
+final class KeyframeCache {
+
+    static final class Keyframe {
+
+        // the depth of the node, the root being 0
+        final int mDepth;
+        // GameNode.getChangeCount() when the keyframe was saved
+        final int mChangeCount;
+        // four points to a byte, two bits each
+        final byte[] mStones;
+
+        Keyframe(int depth, int changeCount, byte[] stones) {
+            mDepth = depth;
+            mChangeCount = changeCount;
+            mStones = stones;
+        }
+
+        /**
+         * Whether the moves and the parents of the node and of all the nodes
+         * above it are the same as when the keyframe was saved.
+         */
+        boolean isUpToDate(GameNode node) {
+            for (; node != null; node = node.getParentNode()) {
+                if (node.getChangeStamp() - mChangeCount > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private int mMaxKeyframes;
+
+    private final Map<GameNode, Keyframe> mKeyframes = new LinkedHashMap<GameNode, Keyframe>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<GameNode, Keyframe> eldest) {
+            return size() > mMaxKeyframes;
+        }
+    };
+
+    KeyframeCache(int maxKeyframes) {
+        mMaxKeyframes = maxKeyframes;
+    }
+
+    Keyframe get(GameNode node) {
+        return mKeyframes.isEmpty() ? null : mKeyframes.get(node);
+    }
+
+    void put(GameNode node, Keyframe keyframe) {
+        if (mMaxKeyframes > 0) {
+            mKeyframes.put(node, keyframe);
+        }
+    }
+
+    void remove(GameNode node) {
+        mKeyframes.remove(node);
+    }
+
+    void setMaxKeyframes(int maxKeyframes) {
+        mMaxKeyframes = maxKeyframes;
+        if (mKeyframes.size() > maxKeyframes) {
+            // drops the least recently used ones
+            int drop = mKeyframes.size() - maxKeyframes;
+            Iterator<GameNode> iterator = mKeyframes.keySet().iterator();
+            while (drop-- > 0) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    int getMaxKeyframes() {
+        return mMaxKeyframes;
+    }
+
+    int size() {
+        return mKeyframes.size();
+    }
+
+    void clear() {
+        mKeyframes.clear();
+    }
+}
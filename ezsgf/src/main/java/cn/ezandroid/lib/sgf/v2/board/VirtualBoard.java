@@ -1,84 +1,329 @@
 package cn.ezandroid.lib.sgf.v2.board;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
+import cn.ezandroid.lib.sgf.v2.parser.Game;
 import cn.ezandroid.lib.sgf.v2.parser.GameNode;
-import cn.ezandroid.lib.sgf.v2.parser.Util;
 
 public class VirtualBoard {
 
-    private int mSize = 19;
-    private Square[][] mVirtualBoard = new Square[mSize][mSize];
+    // the points hold the ordinal of their StoneState, or BORDER
+    private static final byte EMPTY = (byte) StoneState.EMPTY.ordinal();
+    private static final byte BORDER = 3;
+    private static final StoneState[] STATES = StoneState.values();
+
+    private static final int NO_CHAIN = -1;
+
+    public static final int DEFAULT_SIZE = 19;
+    // the largest board SGF coordinates can describe
+    public static final int MAX_SIZE = 52;
+
+    private final int mWidth;
+    private final int mHeight;
+    // The board has a border of BORDER points around it, so the neighbours
+    // of a point are always p - 1, p + 1, p - mStride and p + mStride
+    // whatever the size. Point x, y is at (x + 1) * mStride + y + 1.
+    private final int mStride;
+    private final byte[] mBoard;
+
     private List<BoardListener> mBoardListeners = new ArrayList<>();
-    private Map<GameNode, Set<Group>> mMoveToRemovedGroups = new HashMap<>();
+    // reused by fastForwardTo
+    private final List<GameNode> mMovesToPlay = new ArrayList<>();
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 16;
+    public static final int DEFAULT_MAX_KEYFRAMES = 512;
+
+    // fastForwardTo saves the position every mKeyframeInterval nodes
+    private int mKeyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+    private final KeyframeCache mKeyframes = new KeyframeCache(DEFAULT_MAX_KEYFRAMES);
+
+    // The stones are kept in chains, so a move only needs to look at the
+    // chains around it. Each point holds the head point of its chain (or
+    // NO_CHAIN) and the next stone of the chain, the stones of a chain
+    // forming a ring. The size and the pseudo liberties, the number of
+    // stone / empty point neighbour pairs, are kept under the head point.
+    // A chain is dead when it has no pseudo liberties.
+    private final int[] mChainHead;
+    private final int[] mNextStone;
+    private final int[] mChainSize;
+    private final int[] mChainLiberties;
+    // scratch space for flood fills
+    private final int[] mStack;
+
+    // set when a chain may be left without liberties, after a suicide or a
+    // stone placed without capturing, the next move then checks the
+    // whole board
+    private boolean mMayHaveDeadChains;
+
+    // The undo journal. Every makeMove adds a frame to mJournal: the point
+    // played, or NO_POINT, what undo and redo need to know about it (see
+    // the JOURNAL_ constants), the number of captured stones and their
+    // points. mFrames holds where each frame starts and mFrameNodes the
+    // node it was made for. The frames from mFrameCount up to
+    // mRedoFrameCount were undone and can be redone until the next move.
+    // Resetting the board empties the journal.
+    private static final int NO_POINT = -1;
+    private static final int JOURNAL_POINT = 0;
+    // the color that was on the point, the color played and whether there
+    // may have been dead chains before and after the move
+    private static final int JOURNAL_INFO = 1;
+    private static final int JOURNAL_CAPTURED = 2;
+    private static final int JOURNAL_HEADER = 3;
+    private static final int INFO_DEAD_BEFORE = 16;
+    private static final int INFO_DEAD_AFTER = 32;
+
+    private int[] mJournal = new int[256];
+    private int mJournalSize;
+    private int[] mFrames = new int[64];
+    private GameNode[] mFrameNodes = new GameNode[64];
+    private int mFrameCount;
+    private int mRedoFrameCount;
 
     public VirtualBoard() {
+        this(DEFAULT_SIZE, DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a board of the size given by the SZ property of the game.
+     */
+    public VirtualBoard(Game game) {
+        this(game.getBoardWidth(), game.getBoardHeight());
+    }
+
+    public VirtualBoard(int size) {
+        this(size, size);
+    }
+
+    public VirtualBoard(int width, int height) {
+        if (width < 1 || width > MAX_SIZE || height < 1 || height > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid board size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mStride = height + 2;
+
+        int points = (width + 2) * mStride;
+        mBoard = new byte[points];
+        mChainHead = new int[points];
+        mNextStone = new int[points];
+        mChainSize = new int[points];
+        mChainLiberties = new int[points];
+        mStack = new int[points];
         initEmptyBoard();
     }
 
     private void initEmptyBoard() {
-        for (int i = 0; i < mVirtualBoard.length; i++) {
-            for (int j = 0; j < mVirtualBoard.length; j++) {
-                mVirtualBoard[i][j] = new Square(StoneState.EMPTY, i, j);
-            }
+        Arrays.fill(mBoard, BORDER);
+        for (int x = 0; x < mWidth; x++) {
+            int row = toPoint(x, 0);
+            Arrays.fill(mBoard, row, row + mHeight, EMPTY);
+        }
+        Arrays.fill(mChainHead, NO_CHAIN);
+        mMayHaveDeadChains = false;
+
+        Arrays.fill(mFrameNodes, 0, mRedoFrameCount, null);
+        mFrameCount = 0;
+        mRedoFrameCount = 0;
+        mJournalSize = 0;
+    }
+
+    private int toPoint(int x, int y) {
+        if (x < 0 || x >= mWidth || y < 0 || y >= mHeight) {
+            throw new ArrayIndexOutOfBoundsException("Point " + x + "," + y + " is off the board");
         }
+        return (x + 1) * mStride + y + 1;
+    }
+
+    private int toX(int p) {
+        return p / mStride - 1;
+    }
+
+    private int toY(int p) {
+        return p % mStride - 1;
     }
 
     public void makeMove(GameNode move, GameNode prevMove) {
         // only if the move is not a pass
-        if (move.getMoveString() != null && !move.isPass() && !move.isPlacementMove()) {
-            int x = move.getCoords()[0];
-            int y = move.getCoords()[1];
-            this.mVirtualBoard[x][y] = new Square(move.getColorAsEnum(), x, y);
-            Set<Group> removedGroups = removeDeadGroupsForOppColor(move.getColorAsEnum());
-            mMoveToRemovedGroups.put(move, removedGroups);
+        if (move.isMove() && !move.isPass(mWidth, mHeight)) {
+            int x = move.getMoveX();
+            int y = move.getMoveY();
+            int p = toPoint(x, y);
+            StoneState color = move.getColorAsEnum();
+            byte stoneColor = (byte) color.ordinal();
+            byte oppColor = (byte) oppColor(color).ordinal();
+
+            int frame = addFrame(move, p, mBoard[p] | stoneColor << 2 | (mMayHaveDeadChains ? INFO_DEAD_BEFORE : 0));
+            setStone(p, stoneColor);
+            if (mMayHaveDeadChains) {
+                removeDeadChains(oppColor);
+                mMayHaveDeadChains = hasDeadChains();
+            } else {
+                removeIfDead(p - mStride, oppColor);
+                removeIfDead(p + mStride, oppColor);
+                removeIfDead(p - 1, oppColor);
+                removeIfDead(p + 1, oppColor);
+                // suicide
+                mMayHaveDeadChains = mChainLiberties[mChainHead[p]] == 0;
+            }
+            mJournal[frame + JOURNAL_CAPTURED] = mJournalSize - frame - JOURNAL_HEADER;
+            if (mMayHaveDeadChains) {
+                mJournal[frame + JOURNAL_INFO] |= INFO_DEAD_AFTER;
+            }
+
             // place the stone on the board
-            placeStone(move);
+            for (int i = 0; i < mBoardListeners.size(); i++) {
+                mBoardListeners.get(i).placeStone(x, y, color);
+            }
+        } else {
+            addFrame(move, NO_POINT, 0);
         }
 
         // play the move fully out with all the bells and whistles
         playMove(move, prevMove);
     }
 
+    /**
+     * Starts a new journal frame, dropping the frames that could be redone.
+     */
+    private int addFrame(GameNode move, int p, int info) {
+        Arrays.fill(mFrameNodes, mFrameCount, mRedoFrameCount, null);
+        if (mFrameCount < mRedoFrameCount) {
+            mJournalSize = mFrames[mFrameCount];
+        }
+        if (mFrameCount == mFrames.length) {
+            mFrames = Arrays.copyOf(mFrames, mFrameCount * 2);
+            mFrameNodes = Arrays.copyOf(mFrameNodes, mFrameCount * 2);
+        }
+
+        int frame = mJournalSize;
+        ensureJournalCapacity(JOURNAL_HEADER);
+        mJournal[frame + JOURNAL_POINT] = p;
+        mJournal[frame + JOURNAL_INFO] = info;
+        mJournal[frame + JOURNAL_CAPTURED] = 0;
+        mJournalSize += JOURNAL_HEADER;
+
+        mFrames[mFrameCount] = frame;
+        mFrameNodes[mFrameCount] = move;
+        mFrameCount++;
+        mRedoFrameCount = mFrameCount;
+        return frame;
+    }
+
+    private void ensureJournalCapacity(int extra) {
+        if (mJournalSize + extra > mJournal.length) {
+            mJournal = Arrays.copyOf(mJournal, Math.max(mJournal.length * 2, mJournalSize + extra));
+        }
+    }
+
+    /**
+     * Takes back the given move. If it is the last move played with makeMove
+     * or redoMove, the journal puts back the stones it captured. Listeners
+     * get removeStone() or placeStone() for the point played, placeStone()
+     * for each stone put back and then undoMove().
+     * <p>
+     * Otherwise the board is fast forwarded to the node before it, and
+     * listeners get what fastForwardTo() sends instead: initInitialPosition(),
+     * the stones of the position it starts from and playMove() for the nodes
+     * it plays, the last one being that node. They don't get undoMove() as
+     * well, the playMove() for the node before already tells them where the
+     * board is. A node without a parent only has its stone taken off, then
+     * listeners get removeStone() and undoMove().
+     */
     public void undoMove(GameNode moveNode, GameNode prevMove) {
-        if (!moveNode.isPass() && !moveNode.isPlacementMove()) {
-            String currMoveStr = moveNode.getMoveString();
-            int[] moveCoords = Util.alphaToCoords(currMoveStr);
-            removeStone(moveCoords[0], moveCoords[1]);
-        }
-
-        // if the move that we are taking back happened to remove
-        // stones on the board and now the move is undone we need
-        // to put those stones back
-        Set<Group> removedGroups = mMoveToRemovedGroups.get(moveNode);
-        if (removedGroups != null) {
-            for (Group group : removedGroups) {
-                for (Square square : group.mStones) {
-                    placeStone(square);
+        if (mFrameCount > 0 && mFrameNodes[mFrameCount - 1] == moveNode) {
+            int frame = mFrames[--mFrameCount];
+            int p = mJournal[frame + JOURNAL_POINT];
+            if (p != NO_POINT) {
+                int info = mJournal[frame + JOURNAL_INFO];
+                byte previous = (byte) (info & 3);
+                byte captured = (byte) (3 - (info >> 2 & 3));
+
+                setStone(p, previous);
+                int x = toX(p);
+                int y = toY(p);
+                for (int i = 0; i < mBoardListeners.size(); i++) {
+                    if (previous == EMPTY) {
+                        mBoardListeners.get(i).removeStone(x, y);
+                    } else {
+                        mBoardListeners.get(i).placeStone(x, y, STATES[previous]);
+                    }
+                }
+
+                // if the move that we are taking back happened to remove
+                // stones on the board and now the move is undone we need
+                // to put those stones back
+                for (int i = frame + JOURNAL_HEADER, end = i + mJournal[frame + JOURNAL_CAPTURED]; i < end; i++) {
+                    setStone(mJournal[i], captured);
+                    for (int j = 0; j < mBoardListeners.size(); j++) {
+                        mBoardListeners.get(j).placeStone(toX(mJournal[i]), toY(mJournal[i]), STATES[captured]);
+                    }
                 }
+                mMayHaveDeadChains = (info & INFO_DEAD_BEFORE) != 0;
             }
+        } else if (moveNode.getParentNode() != null) {
+            fastForwardTo(moveNode.getParentNode());
+            return;
+        } else if (moveNode.isMove() && !moveNode.isPass(mWidth, mHeight)) {
+            removeStone(moveNode.getMoveX(), moveNode.getMoveY());
         }
 
-        for (BoardListener boardListener : mBoardListeners) {
-            boardListener.undoMove(moveNode, prevMove);
+        for (int i = 0; i < mBoardListeners.size(); i++) {
+            mBoardListeners.get(i).undoMove(moveNode, prevMove);
         }
     }
 
+    /**
+     * Plays the move taken back last with undoMove again, taking off the
+     * stones the journal says it captured. Any other move is played with
+     * makeMove.
+     */
+    public void redoMove(GameNode move, GameNode prevMove) {
+        if (mFrameCount == mRedoFrameCount || mFrameNodes[mFrameCount] != move) {
+            makeMove(move, prevMove);
+            return;
+        }
+
+        int frame = mFrames[mFrameCount++];
+        int p = mJournal[frame + JOURNAL_POINT];
+        if (p != NO_POINT) {
+            int info = mJournal[frame + JOURNAL_INFO];
+            byte stoneColor = (byte) (info >> 2 & 3);
+            setStone(p, stoneColor);
+            for (int i = frame + JOURNAL_HEADER, end = i + mJournal[frame + JOURNAL_CAPTURED]; i < end; i++) {
+                int head = mChainHead[mJournal[i]];
+                if (head != NO_CHAIN) {
+                    removeChain(head, false);
+                }
+            }
+            mMayHaveDeadChains = (info & INFO_DEAD_AFTER) != 0;
+
+            for (int i = 0; i < mBoardListeners.size(); i++) {
+                mBoardListeners.get(i).placeStone(toX(p), toY(p), STATES[stoneColor]);
+            }
+        }
+
+        playMove(move, prevMove);
+    }
+
     public void placeStone(StoneState color, int x, int y) {
-        this.mVirtualBoard[x][y] = new Square(color, x, y);
-        for (BoardListener boardListener : mBoardListeners) {
-            boardListener.placeStone(x, y, color);
+        setStone(toPoint(x, y), toByte(color));
+        if (color == StoneState.BLACK || color == StoneState.WHITE) {
+            // nothing gets captured here, so the stone or its neighbours
+            // may be left without liberties
+            mMayHaveDeadChains |= hasDeadNeighbours(toPoint(x, y));
+        }
+        for (int i = 0; i < mBoardListeners.size(); i++) {
+            mBoardListeners.get(i).placeStone(x, y, color);
         }
     }
 
     public void playMove(GameNode move, GameNode prevMove) {
-        for (BoardListener boardListener : mBoardListeners) {
-            boardListener.playMove(move, prevMove);
+        for (int i = 0; i < mBoardListeners.size(); i++) {
+            mBoardListeners.get(i).playMove(move, prevMove);
         }
     }
 
@@ -94,7 +339,7 @@ public class VirtualBoard {
      * @param gameNode the node to place
      */
     public void placeStone(GameNode gameNode) {
-        placeStone(gameNode.getColorAsEnum(), gameNode.getCoords()[0], gameNode.getCoords()[1]);
+        placeStone(gameNode.getColorAsEnum(), gameNode.getMoveX(), gameNode.getMoveY());
     }
 
     public void placeWhiteStone(int i, int j) {
@@ -110,21 +355,73 @@ public class VirtualBoard {
     }
 
     public Set<Group> removeDeadGroups(StoneState color) {
-        Set<Group> groups = findDistinctGroups(color);
         Set<Group> rtrn = new HashSet<>();
-        for (Group group : groups) {
-            if (group.isDead(mVirtualBoard)) {
-                removeStones(group);
+        // the removed points go past the end of the journal for a moment
+        int journalSize = mJournalSize;
+        byte stoneColor = (byte) color.ordinal();
+        for (int p = 0; p < mBoard.length; p++) {
+            int head = mChainHead[p];
+            if (head == p && mChainLiberties[head] == 0 && mBoard[p] == stoneColor) {
+                int start = mJournalSize;
+                removeChain(head, true);
+
+                Group group = new Group();
+                for (int i = start; i < mJournalSize; i++) {
+                    group.addStone(new Square(color, toX(mJournal[i]), toY(mJournal[i])));
+                }
                 rtrn.add(group);
             }
         }
+        mJournalSize = journalSize;
         return rtrn;
     }
 
+    private void removeDeadChains(byte color) {
+        for (int p = 0; p < mBoard.length; p++) {
+            int head = mChainHead[p];
+            if (head == p && mChainLiberties[head] == 0 && mBoard[p] == color) {
+                removeChain(head, true);
+            }
+        }
+    }
+
+    /**
+     * Removes the chain at the point if it is of the given color and has no
+     * liberties left.
+     */
+    private void removeIfDead(int p, byte color) {
+        int head = mChainHead[p];
+        if (head != NO_CHAIN && mChainLiberties[head] == 0 && mBoard[p] == color) {
+            removeChain(head, true);
+        }
+    }
+
+    private boolean hasDeadChains() {
+        for (int p = 0; p < mBoard.length; p++) {
+            if (mChainHead[p] == p && mChainLiberties[p] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasDeadNeighbours(int p) {
+        return isDeadChainAt(p)
+                || isDeadChainAt(p - mStride)
+                || isDeadChainAt(p + mStride)
+                || isDeadChainAt(p - 1)
+                || isDeadChainAt(p + 1);
+    }
+
+    private boolean isDeadChainAt(int p) {
+        int head = mChainHead[p];
+        return head != NO_CHAIN && mChainLiberties[head] == 0;
+    }
+
     public void removeStone(int x, int y) {
-        mVirtualBoard[x][y] = new Square(x, y);
-        for (BoardListener boardListener : mBoardListeners) {
-            boardListener.removeStone(x, y);
+        setStone(toPoint(x, y), EMPTY);
+        for (int i = 0; i < mBoardListeners.size(); i++) {
+            mBoardListeners.get(i).removeStone(x, y);
         }
     }
 
@@ -135,41 +432,201 @@ public class VirtualBoard {
     }
 
     protected Set<Group> findDistinctGroups(StoneState color) {
-        Set<Square> alreadyChecked = new HashSet<>();
-
         Set<Group> groups = new HashSet<>();
-        Group activeGroup = new Group();
-        for (int i = 0; i < mVirtualBoard.length; i++) {
-            for (int j = 0; j < mVirtualBoard[i].length; j++) {
-                // we found a group, lets expand this
-                if (mVirtualBoard[i][j].isOfColor(color) && !alreadyChecked.contains(mVirtualBoard[i][j])) {
-                    populateGroup(i, j, color, activeGroup);
-                    alreadyChecked.addAll(activeGroup.mStones);
-
-                    groups.add(activeGroup);
-                    activeGroup = new Group();
-                }
-                // alreadyChecked.add(new Square());
+        byte stoneColor = (byte) color.ordinal();
+        for (int p = 0; p < mBoard.length; p++) {
+            if (mChainHead[p] == p && mBoard[p] == stoneColor) {
+                Group group = new Group();
+                int stone = p;
+                do {
+                    group.addStone(new Square(color, toX(stone), toY(stone)));
+                    stone = mNextStone[stone];
+                } while (stone != p);
+                groups.add(group);
             }
         }
         return groups;
     }
 
-    /*
-     * Starts from a node and then finds all the connected stones with this group.
-     * Basically populates by starting from a single node.
+    private static byte toByte(StoneState color) {
+        return color == StoneState.BLACK || color == StoneState.WHITE ? (byte) color.ordinal() : EMPTY;
+    }
+
+    /**
+     * Puts a stone of the given color, or nothing for EMPTY, on the point and
+     * keeps the chains up to date. Nothing is captured.
      */
-    private void populateGroup(int i, int j, StoneState color, Group activeGroup) {
-        if (mVirtualBoard[i][j].isOfColor(color) && !activeGroup.contains(mVirtualBoard[i][j])) {
-            activeGroup.addStone(mVirtualBoard[i][j]);
-            if (i - 1 > -1)
-                populateGroup(i - 1, j, color, activeGroup);
-            if (i + 1 < 19)
-                populateGroup(i + 1, j, color, activeGroup);
-            if (j - 1 > -1)
-                populateGroup(i, j - 1, color, activeGroup);
-            if (j + 1 < 19)
-                populateGroup(i, j + 1, color, activeGroup);
+    private void setStone(int p, byte color) {
+        if (mChainHead[p] != NO_CHAIN) {
+            removeFromChain(p);
+        }
+        mBoard[p] = color;
+        if (color != EMPTY) {
+            addToChains(p);
+        }
+    }
+
+    private void addToChains(int p) {
+        mChainHead[p] = p;
+        mNextStone[p] = p;
+        mChainSize[p] = 1;
+        mChainLiberties[p] = 0;
+
+        joinNeighbour(p, p - mStride);
+        joinNeighbour(p, p + mStride);
+        joinNeighbour(p, p - 1);
+        joinNeighbour(p, p + 1);
+    }
+
+    private void joinNeighbour(int p, int neighbour) {
+        int neighbourHead = mChainHead[neighbour];
+        if (neighbourHead == NO_CHAIN) {
+            if (mBoard[neighbour] == EMPTY) {
+                mChainLiberties[mChainHead[p]]++;
+            }
+            return;
+        }
+
+        // the point was a liberty of the neighbour
+        mChainLiberties[neighbourHead]--;
+        if (mBoard[neighbour] == mBoard[p] && neighbourHead != mChainHead[p]) {
+            mergeChains(mChainHead[p], neighbourHead);
+        }
+    }
+
+    private void mergeChains(int head, int otherHead) {
+        // relabel the smaller chain
+        if (mChainSize[head] < mChainSize[otherHead]) {
+            int tmp = head;
+            head = otherHead;
+            otherHead = tmp;
+        }
+
+        int stone = otherHead;
+        do {
+            mChainHead[stone] = head;
+            stone = mNextStone[stone];
+        } while (stone != otherHead);
+
+        // splice the rings
+        int next = mNextStone[head];
+        mNextStone[head] = mNextStone[otherHead];
+        mNextStone[otherHead] = next;
+
+        mChainSize[head] += mChainSize[otherHead];
+        mChainLiberties[head] += mChainLiberties[otherHead];
+    }
+
+    /**
+     * Takes a single stone off the board. Its chain may fall apart, so the
+     * rest of it is chained up again.
+     */
+    private void removeFromChain(int p) {
+        int head = mChainHead[p];
+        if (mChainSize[head] > 1) {
+            int stone = mNextStone[p];
+            do {
+                mChainHead[stone] = NO_CHAIN;
+                stone = mNextStone[stone];
+            } while (stone != p);
+        }
+        mChainHead[p] = NO_CHAIN;
+        giveLibertyToNeighbours(p);
+
+        if (mChainSize[head] > 1) {
+            byte color = mBoard[p];
+            mBoard[p] = EMPTY;
+            rebuildChain(p - mStride, color);
+            rebuildChain(p + mStride, color);
+            rebuildChain(p - 1, color);
+            rebuildChain(p + 1, color);
+        }
+    }
+
+    /**
+     * Chains up the stones of the given color connected to the point that
+     * don't belong to a chain.
+     */
+    private void rebuildChain(int start, byte color) {
+        if (mChainHead[start] != NO_CHAIN || mBoard[start] != color) {
+            return;
+        }
+
+        int size = 0;
+        int liberties = 0;
+        int top = 0;
+        mStack[top++] = start;
+        mChainHead[start] = start;
+        mNextStone[start] = start;
+        while (top > 0) {
+            int p = mStack[--top];
+            size++;
+            liberties += mBoard[p - mStride] == EMPTY ? 1 : 0;
+            liberties += mBoard[p + mStride] == EMPTY ? 1 : 0;
+            liberties += mBoard[p - 1] == EMPTY ? 1 : 0;
+            liberties += mBoard[p + 1] == EMPTY ? 1 : 0;
+            top = push(start, p - mStride, color, top);
+            top = push(start, p + mStride, color, top);
+            top = push(start, p - 1, color, top);
+            top = push(start, p + 1, color, top);
+        }
+        mChainSize[start] = size;
+        mChainLiberties[start] = liberties;
+    }
+
+    private int push(int head, int neighbour, byte color, int top) {
+        if (mChainHead[neighbour] == NO_CHAIN && mBoard[neighbour] == color) {
+            mChainHead[neighbour] = head;
+            mNextStone[neighbour] = mNextStone[head];
+            mNextStone[head] = neighbour;
+            mStack[top++] = neighbour;
+        }
+        return top;
+    }
+
+    /**
+     * Removes a whole chain, telling the listeners, and adds its points to
+     * the end of the journal if asked to.
+     */
+    private void removeChain(int head, boolean journal) {
+        if (journal) {
+            ensureJournalCapacity(mChainSize[head]);
+        }
+        int stone = head;
+        do {
+            if (journal) {
+                mJournal[mJournalSize++] = stone;
+            }
+            mChainHead[stone] = NO_CHAIN;
+            mBoard[stone] = EMPTY;
+            stone = mNextStone[stone];
+        } while (stone != head);
+
+        do {
+            giveLibertyToNeighbours(stone);
+            int x = toX(stone);
+            int y = toY(stone);
+            for (int i = 0; i < mBoardListeners.size(); i++) {
+                mBoardListeners.get(i).removeStone(x, y);
+            }
+            stone = mNextStone[stone];
+        } while (stone != head);
+    }
+
+    /**
+     * The point has just become empty, so each stone next to it gains a
+     * liberty.
+     */
+    private void giveLibertyToNeighbours(int p) {
+        addLiberty(p - mStride);
+        addLiberty(p + mStride);
+        addLiberty(p - 1);
+        addLiberty(p + 1);
+    }
+
+    private void addLiberty(int p) {
+        if (mChainHead[p] != NO_CHAIN) {
+            mChainLiberties[mChainHead[p]]++;
         }
     }
 
@@ -182,22 +639,52 @@ public class VirtualBoard {
             return StoneState.WHITE;
     }
 
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
     public void printBoard() {
-        for (int i = 0; i < mVirtualBoard.length; i++) {
-            for (int j = 0; j < mVirtualBoard[i].length; j++) {
-                System.out.print(mVirtualBoard[i][j]);
+        for (int i = 0; i < mWidth; i++) {
+            for (int j = 0; j < mHeight; j++) {
+                System.out.print(new Square(getColor(i, j), i, j));
             }
             System.out.println();
         }
     }
 
+    /**
+     * Returns the stone on the point, EMPTY if there is none. Nothing is
+     * allocated, so this is the way to read the position.
+     */
+    public StoneState getColor(int x, int y) {
+        return STATES[mBoard[toPoint(x, y)]];
+    }
+
+    /**
+     * Returns a new Square for the point, later moves don't change it.
+     *
+     * @deprecated allocates a Square on every call, use getColor(x, y).
+     */
+    @Deprecated
     public Square getCoord(int x, int y) {
-        return mVirtualBoard[x][y];
+        return new Square(getColor(x, y), x, y);
     }
 
+    /**
+     * Creates a board as big as the given string, a line for each x and a
+     * character for each y.
+     */
     public static VirtualBoard setUpFromStringBoard(String board) {
-        VirtualBoard rtrn = new VirtualBoard();
         String[] lines = board.split("\\n");
+        int height = 0;
+        for (String line : lines) {
+            height = Math.max(height, line.length());
+        }
+        VirtualBoard rtrn = new VirtualBoard(lines.length, height);
         for (int i = 0; i < lines.length; i++) {
             for (int j = 0; j < lines[i].length(); j++) {
                 Square sq = new Square(lines[i].charAt(j), i, j);
@@ -207,38 +694,162 @@ public class VirtualBoard {
         return rtrn;
     }
 
+    /**
+     * Sets up the board as it is after the given node. The position is
+     * restored from the closest keyframe above the node, if there is one, and
+     * only the nodes below it are played. Listeners then get
+     * initInitialPosition() and a placeStone() for each stone of the
+     * keyframe instead of the moves that led to it.
+     * <p>
+     * A keyframe is only used while the moves (B, W, AB and AW) and the
+     * parents of its node and of all the nodes above it are the same as when
+     * it was saved, see GameNode.getChangeStamp(). Editing the game doesn't
+     * need clearKeyframes().
+     */
     public void fastForwardTo(GameNode fwdTo) {
         // the fwdTo could be an element in one of the child nodes
         // it is really difficult to find if we start from the rootNode
         // so lets start from the node itself, go backwards until we
-        // find the root node and later on play all the moves until that point
-        List<GameNode> movesToPlay = new ArrayList<>();
+        // find a keyframe or the root node and later on play all the
+        // moves until that point. The node itself is always played.
+        List<GameNode> movesToPlay = mMovesToPlay;
+        movesToPlay.clear();
+        movesToPlay.add(fwdTo);
+        KeyframeCache.Keyframe keyframe = null;
         GameNode node = fwdTo;
-        do {
-            //if (node.isMove()) {
+        while ((node = node.getParentNode()) != null) {
+            keyframe = mKeyframes.get(node);
+            if (keyframe != null) {
+                if (keyframe.isUpToDate(node)) {
+                    break;
+                }
+                // the node or one above it changed since
+                mKeyframes.remove(node);
+                keyframe = null;
+            }
             movesToPlay.add(node);
-            //}
         }
-        while ((node = node.getParentNode()) != null);
 
         initEmptyBoard();
 
-        for (BoardListener boardListener : mBoardListeners) {
-            boardListener.initInitialPosition();
+        for (int i = 0; i < mBoardListeners.size(); i++) {
+            mBoardListeners.get(i).initInitialPosition();
         }
 
         GameNode prevMove = null;
+        int depth = 0;
+        if (keyframe != null) {
+            restoreKeyframe(keyframe);
+            prevMove = node;
+            depth = keyframe.mDepth + 1;
+        }
+
         // now lets re-play the moves
-        for (int i = movesToPlay.size() - 1; i > -1; i--) {
+        for (int i = movesToPlay.size() - 1; i > -1; i--, depth++) {
             node = movesToPlay.get(i);
             makeMove(node, prevMove);
+            if (mKeyframeInterval > 0 && depth > 0 && depth % mKeyframeInterval == 0) {
+                saveKeyframe(node, depth);
+            }
 
             prevMove = node;
         }
+        movesToPlay.clear();
+    }
+
+    private void saveKeyframe(GameNode node, int depth) {
+        KeyframeCache.Keyframe keyframe = mKeyframes.get(node);
+        if (keyframe != null && keyframe.isUpToDate(node)) {
+            return;
+        }
+
+        byte[] stones = new byte[(mWidth * mHeight + 3) / 4];
+        int i = 0;
+        for (int x = 0; x < mWidth; x++) {
+            for (int p = toPoint(x, 0), end = p + mHeight; p < end; p++, i++) {
+                stones[i >> 2] |= mBoard[p] << ((i & 3) << 1);
+            }
+        }
+        mKeyframes.put(node, new KeyframeCache.Keyframe(depth, GameNode.getChangeCount(), stones));
+    }
+
+    private void restoreKeyframe(KeyframeCache.Keyframe keyframe) {
+        byte[] stones = keyframe.mStones;
+        int i = 0;
+        for (int x = 0; x < mWidth; x++) {
+            for (int p = toPoint(x, 0), end = p + mHeight; p < end; p++, i++) {
+                mBoard[p] = (byte) ((stones[i >> 2] >> ((i & 3) << 1)) & 3);
+            }
+        }
+
+        for (int p = 0; p < mBoard.length; p++) {
+            byte color = mBoard[p];
+            if (color != EMPTY && color != BORDER) {
+                rebuildChain(p, color);
+                for (int j = 0; j < mBoardListeners.size(); j++) {
+                    mBoardListeners.get(j).placeStone(toX(p), toY(p), STATES[color]);
+                }
+            }
+        }
+        mMayHaveDeadChains = hasDeadChains();
     }
 
+    /**
+     * Sets how often fastForwardTo saves a keyframe, every interval nodes
+     * down from the root. 0 turns keyframes off.
+     */
+    public void setKeyframeInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval=" + interval);
+        }
+        mKeyframeInterval = interval;
+        if (interval == 0) {
+            mKeyframes.clear();
+        }
+    }
+
+    public int getKeyframeInterval() {
+        return mKeyframeInterval;
+    }
+
+    /**
+     * Sets how many keyframes are kept, the least recently used ones are
+     * dropped first. A 19x19 keyframe takes about 100 bytes.
+     */
+    public void setMaxKeyframes(int maxKeyframes) {
+        if (maxKeyframes < 0) {
+            throw new IllegalArgumentException("maxKeyframes=" + maxKeyframes);
+        }
+        mKeyframes.setMaxKeyframes(maxKeyframes);
+    }
+
+    public int getMaxKeyframes() {
+        return mKeyframes.getMaxKeyframes();
+    }
+
+    /**
+     * Drops all keyframes, to free their memory. Keyframes of nodes that
+     * changed are not used anyway, see fastForwardTo().
+     */
+    public void clearKeyframes() {
+        mKeyframes.clear();
+    }
+
+    /**
+     * Returns a copy of the board as Squares, later moves don't change it.
+     *
+     * @deprecated allocates a Square for every point, use getColor(x, y)
+     * with getWidth() and getHeight().
+     */
+    @Deprecated
     public Square[][] getBoard() {
-        return mVirtualBoard;
+        Square[][] rtrn = new Square[mWidth][mHeight];
+        for (int i = 0; i < mWidth; i++) {
+            for (int j = 0; j < mHeight; j++) {
+                rtrn[i][j] = getCoord(i, j);
+            }
+        }
+        return rtrn;
     }
 
     public void addBoardListener(BoardListener listener) {
@@ -1,12 +1,18 @@
 package cn.ezandroid.lib.sgf.v2.parser;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import cn.ezandroid.lib.sgf.v2.Sgf;
+import cn.ezandroid.lib.sgf.v2.SgfWriter;
+import cn.ezandroid.lib.sgf.v2.board.VirtualBoard;
 
 /**
  * This class denotes a Go game. It deals with loading the game and saving the game
@@ -59,6 +65,50 @@ public class Game {
         return new HashMap<>(this.mProperties);
     }
 
+    /**
+     * Returns the width of the board from the SZ property. A rectangular board
+     * is written as SZ[width:height]. If SZ is missing, malformed or out of the
+     * range VirtualBoard supports (1 to 52), the board is 19x19.
+     */
+    public int getBoardWidth() {
+        return getBoardSize()[0];
+    }
+
+    /**
+     * Returns the height of the board from the SZ property, the same as the
+     * width unless the board is rectangular. Falls back to 19 exactly when
+     * getBoardWidth() does.
+     */
+    public int getBoardHeight() {
+        return getBoardSize()[1];
+    }
+
+    // the width and the height, both checked here so they always agree
+    private int[] getBoardSize() {
+        String size = getProperty("SZ");
+        if (size != null) {
+            String[] sides = size.split(":");
+            if (sides.length <= 2) {
+                int width = parseBoardSide(sides[0]);
+                int height = sides.length == 2 ? parseBoardSide(sides[1]) : width;
+                if (width > 0 && height > 0) {
+                    return new int[]{width, height};
+                }
+            }
+        }
+        return new int[]{VirtualBoard.DEFAULT_SIZE, VirtualBoard.DEFAULT_SIZE};
+    }
+
+    // -1 if the side isn't a number a board can have
+    private static int parseBoardSide(String side) {
+        try {
+            int value = Integer.parseInt(side.trim());
+            return value >= 1 && value <= VirtualBoard.MAX_SIZE ? value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     public String toString() {
         return mProperties.toString();
     }
@@ -124,7 +174,7 @@ public class Game {
     private void heuristicalBranchReorder(GameNode node) {
         do {
             GameNode tmpNode = node.getNextNode();
-            Set<GameNode> children = node.getChildren();
+            List<GameNode> children = node.getChildren();
 
             if (node.isMove() && tmpNode != null) {
                 GameNode newMainLine = null;
@@ -134,8 +184,9 @@ public class Game {
                     }
                 }
                 if (newMainLine != null) {
-                    children.remove(newMainLine);
-                    children.add(node.getNextNode());
+                    node.removeChild(newMainLine);
+                    // the next node is still set, so this makes it a variation
+                    node.addChild(node.getNextNode());
                     node.getNextNode().setPrevNode(null);
                     node.setNextNode(newMainLine);
                     newMainLine.setPrevNode(node);
@@ -146,29 +197,46 @@ public class Game {
     }
 
     private void numberTheMoves(GameNode startNode, int moveNo, int nodeNo) {
-        GameNode node = startNode;
-        int nextMoveNo = moveNo;
-        int nextNodeNo = nodeNo;
+        // the nodes still to number and the numbers they start from,
+        // kept on our own stack as lines can be thousands of nodes long
+        Deque<GameNode> nodes = new ArrayDeque<>();
+        Deque<int[]> numbers = new ArrayDeque<>();
+        nodes.push(startNode);
+        numbers.push(new int[]{moveNo, nodeNo});
+
+        while (!nodes.isEmpty()) {
+            GameNode node = nodes.pop();
+            int[] number = numbers.pop();
+            int nextMoveNo = number[0];
+            int nextNodeNo = number[1];
 
-        if (node.isMove()) {
-            startNode.setMoveNo(moveNo);
-            nextMoveNo++;
-        }
-
-        startNode.setNodeNo(nodeNo);
-        nextNodeNo++;
+            if (node.isMove()) {
+                node.setMoveNo(nextMoveNo);
+                nextMoveNo++;
+            }
 
-        if (node.getNextNode() != null) {
-            numberTheMoves(node.getNextNode(), nextMoveNo, nextNodeNo);
-        }
+            node.setNodeNo(nextNodeNo);
+            nextNodeNo++;
 
-        if (node.hasChildren()) {
-            for (GameNode childNode : node.getChildren()) {
-                numberTheMoves(childNode, nextMoveNo, nextNodeNo);
+            List<GameNode> children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                nodes.push(children.get(i));
+                numbers.push(new int[]{nextMoveNo, nextNodeNo});
+            }
+            if (node.getNextNode() != null) {
+                nodes.push(node.getNextNode());
+                numbers.push(new int[]{nextMoveNo, nextNodeNo});
             }
         }
     }
 
+    /**
+     * Returns an iterator over all the nodes of the game, depth first.
+     */
+    public Iterator<GameNode> nodeIterator() {
+        return new GameNodeIterator(getRootNode());
+    }
+
     public int getNoNodes() {
         return mNoNodes;
     }
@@ -248,7 +316,7 @@ public class Game {
         }
 
         // alrighty, lets check alllllll the moves
-        if (!doAllNodesEqual(this, this.getRootNode(), otherGame, otherGame.getRootNode(), verbose)) {
+        if (!new SameGameHelper(verbose).isSameTree(this.getRootNode(), otherGame.getRootNode())) {
             if (verbose)
                 System.out.println("Some nodes don't equal");
             return false;
@@ -257,77 +325,6 @@ public class Game {
         return true;
     }
 
-    private boolean doAllNodesEqual(Game game, GameNode node, Game otherGame, GameNode otherNode, boolean verbose) {
-        if (!node.isSameNode(otherNode)) {
-            if (verbose) {
-                System.out.println("Nodes don't equal a=" + node + "\nb=" + otherGame);
-            }
-            return false;
-        }
-
-        // First let's check the nextNode
-        GameNode nextNode = node.getNextNode();
-        GameNode nextOtherNode = otherNode.getNextNode();
-
-        if (nextNode != null) {
-            if (!nextNode.isSameNode(nextOtherNode)) {
-                if (verbose) {
-                    System.out.println("Nodes don't equal");
-                    System.out.println(nextNode);
-                    System.out.println(nextOtherNode);
-                    System.out.println();
-                }
-                return false;
-            }
-
-            if (!doAllNodesEqual(game, nextNode, otherGame, nextOtherNode, verbose)) {
-                return false;
-            }
-        } else if (nextOtherNode != null) {
-            if (verbose) {
-                System.out.println("Nodes don't equal node=" + nextNode + " otherNode=" + nextOtherNode);
-            }
-            return false;
-        }
-
-        // Secondly let's check the children nodes
-        Set<GameNode> children = node.getChildren();
-        Set<GameNode> otherChildren = otherNode.getChildren();
-
-        if (children.size() != otherChildren.size()) {
-            if (verbose) {
-                System.out.println("Size of children don't equal node=" + children + " otherNode=" + otherChildren);
-            }
-            return false;
-        }
-
-        for (GameNode gameNode : children) {
-            boolean found = false;
-            for (GameNode gameNode2 : otherChildren) {
-                if (gameNode.isSameNode(gameNode2))
-                    found = true;
-            }
-            if (!found) {
-                if (verbose) {
-                    System.out.println("Children don't equal node=" + children + " otherNode=" + otherChildren);
-                }
-                return false;
-            }
-        }
-
-        Iterator<GameNode> ite = children.iterator();
-        Iterator<GameNode> otherIte = otherChildren.iterator();
-        for (; ite.hasNext(); ) {
-            GameNode childNode = ite.next();
-            GameNode otherChildNode = otherIte.next();
-            if (!doAllNodesEqual(game, childNode, otherGame, otherChildNode, verbose)) {
-                return false;
-            }
-        }
-
-        return true;
-    }
-
     public String getOriginalSgf() {
         return mOriginalSgf;
     }
@@ -337,51 +334,13 @@ public class Game {
     }
 
     public String getGeneratedSgf() {
-        StringBuilder rtrn = new StringBuilder();
-        rtrn.append("(");
-
-        // lets write all the root node properties
-        Map<String, String> props = getProperties();
-        if (props.size() > 0) {
-            rtrn.append(";");
-        }
-
-        for (Map.Entry<String, String> entry : props.entrySet()) {
-            rtrn.append(entry.getKey()).append("[").append(entry.getValue()).append("]");
+        StringWriter rtrn = new StringWriter();
+        try (SgfWriter writer = new SgfWriter(rtrn)) {
+            writer.write(this);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw
+            throw new RuntimeException(e);
         }
-
-        populateSgf(getRootNode(), rtrn);
-
-        rtrn.append(")");
         return rtrn.toString();
     }
-
-    private void populateSgf(GameNode node, StringBuilder sgfString) {
-        // print out the node
-        sgfString.append(";");
-        for (Map.Entry<String, String> entry : node.getProperties().entrySet()) {
-            sgfString.append(entry.getKey()).append("[").append(entry.getValue()).append("]");
-        }
-        sgfString.append("\n");
-
-        // if we have children then first print out the
-        // getNextNode() and then the rest of the children
-        if (node.hasChildren()) {
-            sgfString.append("(");
-            populateSgf(node.getNextNode(), sgfString);
-            sgfString.append(")");
-            sgfString.append("\n");
-
-            for (GameNode childNode : node.getChildren()) {
-                sgfString.append("(");
-                populateSgf(childNode, sgfString);
-                sgfString.append(")");
-                sgfString.append("\n");
-            }
-        }
-        // we can just continue with the next elem
-        else if (node.getNextNode() != null) {
-            populateSgf(node.getNextNode(), sgfString);
-        }
-    }
 }
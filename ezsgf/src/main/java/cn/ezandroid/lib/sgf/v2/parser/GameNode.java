@@ -1,9 +1,10 @@
 package cn.ezandroid.lib.sgf.v2.parser;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import cn.ezandroid.lib.sgf.v2.board.StoneState;
 
@@ -13,18 +14,41 @@ import cn.ezandroid.lib.sgf.v2.board.StoneState;
  */
 public class GameNode implements Comparable<GameNode>, Cloneable {
 
-    private final Set<GameNode> mChildren = new TreeSet<>();
-    private final Map<String, String> mProperties = new HashMap<>();
-    private final Map<String, String> mUpdatedProperties = new HashMap<>();
+    private static final byte FLAG_BLACK = 1;
+    private static final byte FLAG_WHITE = 2;
+    private static final byte FLAG_PLACEMENT = 4;
+    private static final byte FLAG_PASS = 8;
+
+    private static final short NO_MOVE = -1;
+    private static final short BAD_MOVE = -2;
+
+    private static final AtomicInteger sNextSerial = new AtomicInteger();
+    // counts the changes to the moves and parents of all nodes
+    private static final AtomicInteger sChangeCount = new AtomicInteger();
+
+    private List<GameNode> mChildren = Collections.emptyList();
+    // tells the node when the move properties change, see decodeMove()
+    private Map<String, String> mProperties = new PropertyMap(this);
+    // only a few nodes get these, so the map is created on the first one
+    private Map<String, String> mUpdatedProperties;
 
     private int mMoveNo = -1;
     private int mNodeNo = -1;
     private int mVisualDepth = -1;
 
+    // the move is decoded as the properties come in, so replaying a game
+    // doesn't need to go through the strings again
+    private byte mMoveFlags;
+    private short mMove = NO_MOVE;
+
     private GameNode mParentNode;
     private GameNode mNextNode = null;
     private GameNode mPrevNode = null;
     private int mId;
+    // unique among the nodes of the process and never changed, the hash
+    private int mSerial = sNextSerial.getAndIncrement();
+    // the change count when the move or the parent of this node last changed
+    private int mChangeStamp;
 
     /**
      * Constructs a new node with the argument as the parent node. Besides a
@@ -55,13 +79,29 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
             return;
         }
 
-        if (mChildren.contains(node)) {
-            throw new RuntimeException("Node '" + node + "' already exists for " + this);
+        if (mChildren.isEmpty()) {
+            mChildren = new ArrayList<>(2);
         }
-
         mChildren.add(node);
     }
 
+    /**
+     * Removes a variation added by addChild(). The next node is not one of
+     * them, it is changed with setNextNode().
+     *
+     * @param node the variation to remove
+     * @return whether the node was a variation of this node
+     */
+    public boolean removeChild(GameNode node) {
+        if (!mChildren.remove(node)) {
+            return false;
+        }
+        if (mChildren.isEmpty()) {
+            mChildren = Collections.emptyList();
+        }
+        return true;
+    }
+
     public void setNextNode(GameNode nextNode) {
         this.mNextNode = nextNode;
     }
@@ -84,17 +124,95 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
 
     public void setParentNode(GameNode node) {
         mParentNode = node;
+        mChangeStamp = sChangeCount.incrementAndGet();
+    }
+
+    /**
+     * Returns a count that goes up whenever the move (B, W, AB or AW) or the
+     * parent of any node changes.
+     */
+    public static int getChangeCount() {
+        return sChangeCount.get();
+    }
+
+    /**
+     * Returns the change count at which the move or the parent of this node
+     * last changed, see getChangeCount(). A position worked out for this node
+     * when the count was c still holds if neither this node nor any node
+     * above it has a stamp s with s - c > 0. The difference is compared, so
+     * this works when the count wraps around.
+     */
+    public int getChangeStamp() {
+        return mChangeStamp;
     }
 
     public void addProperty(String key, String value) {
         mProperties.put(key, value);
     }
 
+    /**
+     * Decodes the move from the W, B, AB and AW properties again. The
+     * property map calls it whenever one of them is put or removed, also
+     * when that is done through getProperties().
+     */
+    void decodeMove() {
+        mChangeStamp = sChangeCount.incrementAndGet();
+
+        String white = mProperties.get("W");
+        String black = mProperties.get("B");
+
+        byte flags = 0;
+        if (white != null) {
+            flags |= FLAG_WHITE;
+        }
+        if (black != null) {
+            flags |= FLAG_BLACK;
+        }
+        if (mProperties.get("AB") != null || mProperties.get("AW") != null) {
+            flags |= FLAG_PLACEMENT;
+        }
+        mMoveFlags = flags;
+
+        // W wins if both are there, like in getMoveString()
+        String move = white != null ? white : black;
+        if (move != null) {
+            setMove(move);
+        } else {
+            mMove = NO_MOVE;
+        }
+    }
+
+    /**
+     * Packs the coordinates of the move as x << 8 | y, see Util.alphaToCoords.
+     */
+    private void setMove(String move) {
+        if ("tt".equals(move)) {
+            mMoveFlags |= FLAG_PASS;
+        } else {
+            mMoveFlags &= ~FLAG_PASS;
+        }
+
+        if (move == null || move.length() < 2) {
+            mMove = BAD_MOVE;
+            return;
+        }
+        int x = Util.alphaToCoord(move.charAt(0));
+        int y = Util.alphaToCoord(move.charAt(1));
+        if (x < 0 || y < 0) {
+            mMove = BAD_MOVE;
+        } else {
+            mMove = (short) (x << 8 | y);
+        }
+    }
+
     public String getUpdatedProperty(String key) {
-        return mUpdatedProperties.get(key);
+        return mUpdatedProperties != null ? mUpdatedProperties.get(key) : null;
     }
 
     public void addUpdatedProperty(String key, String value) {
+        if (mUpdatedProperties == null) {
+            mUpdatedProperties = new PropertyMap();
+        }
         mUpdatedProperties.put(key, value);
     }
 
@@ -103,10 +221,11 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
     }
 
     public String getProperty(String key, String defaultValue) {
-        if (mProperties.get(key) == null)
+        String value = mProperties.get(key);
+        if (value == null)
             return defaultValue;
         else
-            return mProperties.get(key);
+            return value;
     }
 
     public Map<String, String> getProperties() {
@@ -114,13 +233,13 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
     }
 
     public boolean isMove() {
-        return mProperties.get("W") != null || mProperties.get("B") != null;
+        return (mMoveFlags & (FLAG_WHITE | FLAG_BLACK)) != 0;
     }
 
     public String getMoveString() {
-        if (mProperties.get("W") != null) {
+        if (isWhite()) {
             return mProperties.get("W");
-        } else if (mProperties.get("B") != null) {
+        } else if (isBlack()) {
             return mProperties.get("B");
         } else {
             return null;
@@ -128,26 +247,46 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
     }
 
     public int[] getCoords() {
-        String moveStr = getMoveString();
-        return Util.alphaToCoords(moveStr);
+        return new int[]{getMoveX(), getMoveY()};
+    }
+
+    /**
+     * The x coordinate of the move, the same as getCoords()[0].
+     */
+    public int getMoveX() {
+        if (mMove < 0) {
+            // let it fail the way it always did
+            return Util.alphaToCoords(getMoveString())[0];
+        }
+        return mMove >> 8;
+    }
+
+    /**
+     * The y coordinate of the move, the same as getCoords()[1].
+     */
+    public int getMoveY() {
+        if (mMove < 0) {
+            return Util.alphaToCoords(getMoveString())[1];
+        }
+        return mMove & 0xFF;
     }
 
     public boolean isWhite() {
-        return mProperties.get("W") != null;
+        return (mMoveFlags & FLAG_WHITE) != 0;
     }
 
     public boolean isBlack() {
-        return mProperties.get("B") != null;
+        return (mMoveFlags & FLAG_BLACK) != 0;
     }
 
     public String getColor() {
-        if (mProperties.get("W") != null)
+        if (isWhite())
             return "W";
         return "B";
     }
 
     public StoneState getColorAsEnum() {
-        if (mProperties.get("W") != null)
+        if (isWhite())
             return StoneState.WHITE;
         return StoneState.BLACK;
     }
@@ -156,8 +295,15 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
         return mChildren.size() > 0;
     }
 
-    public Set<GameNode> getChildren() {
-        return mChildren;
+    /**
+     * Returns the variations of this node, besides the next node, in the order
+     * they were added, which is the order they have in the SGF. This used to be
+     * a Set sorted by compareTo(), sort a copy of the list for that order.
+     * <p>
+     * The list can't be changed, use addChild() and removeChild().
+     */
+    public List<GameNode> getChildren() {
+        return Collections.unmodifiableList(mChildren);
     }
 
     public void setMoveNo(int i) {
@@ -174,52 +320,34 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
 
     @Override
     protected Object clone() throws CloneNotSupportedException {
-        return super.clone();
+        GameNode clone = (GameNode) super.clone();
+        clone.mSerial = sNextSerial.getAndIncrement();
+        // the map must tell the clone, not this node, about move changes
+        clone.mProperties = new PropertyMap(clone);
+        clone.mProperties.putAll(mProperties);
+        // the clone has the same children, but adding or removing them
+        // mustn't change this node
+        if (!mChildren.isEmpty()) {
+            clone.mChildren = new ArrayList<>(mChildren);
+        }
+        if (mUpdatedProperties != null) {
+            clone.mUpdatedProperties = new PropertyMap();
+            clone.mUpdatedProperties.putAll(mUpdatedProperties);
+        }
+        return clone;
     }
 
     /**
-     * Similar to equals but doesn't include the ID fiel which is auto-assigned
-     * during parsing and can be system and time dependent. Method is meant
-     * to compare nodes for all the properties worth while equals method
-     * is good to compare objects.
+     * Compares the content of the nodes rather than their identity: the
+     * properties, move number and visual depth of the nodes and their parents.
+     * The ID, which is assigned during parsing, doesn't count. Use a
+     * {@link SameGameHelper} to compare many nodes of the same trees.
      *
      * @param otherNode
      * @return
      */
     public boolean isSameNode(GameNode otherNode) {
-        if (this == otherNode)
-            return true;
-        if (otherNode == null)
-            return false;
-        if (getClass() != otherNode.getClass())
-            return false;
-        GameNode other = otherNode;
-
-        for (GameNode gameNode : mChildren) {
-            boolean found = false;
-            for (GameNode gameNode2 : mChildren) {
-                if (gameNode.isSameNode(gameNode2)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found)
-                return false;
-        }
-
-        if (mMoveNo != other.mMoveNo)
-            return false;
-        if (mParentNode == null) {
-            if (other.mParentNode != null)
-                return false;
-        } else if (!mParentNode.isSameNode(other.mParentNode))
-            return false;
-        if (!mProperties.equals(other.mProperties))
-            return false;
-        if (mVisualDepth != other.mVisualDepth)
-            return false;
-
-        return true;
+        return new SameGameHelper().isSameNode(this, otherNode);
     }
 
     @Override
@@ -237,9 +365,15 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
             return 1;
 
         // so the move no is the same and the depth is the same
-        if (this.hashCode() < o.hashCode())
+        if (this.mId < o.mId)
+            return -1;
+        else if (this.mId > o.mId)
+            return 1;
+
+        // the IDs repeat across games and are 0 for nodes not parsed
+        if (this.mSerial < o.mSerial)
             return -1;
-        else if (this.hashCode() > o.hashCode())
+        else if (this.mSerial > o.mSerial)
             return 1;
 
         return 0;
@@ -253,11 +387,28 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
         return mVisualDepth;
     }
 
+    /**
+     * Whether the move is tt, which is a pass on boards up to 19x19. On bigger
+     * boards tt is the point (19, 19), so use isPass(width, height) when the
+     * size of the board is known.
+     */
     public boolean isPass() {
         // tt means a pass and actually an empty [] also
         // but right now not handling that because I don't know
         // how exactly it looks like in a SGF
-        return !isPlacementMove() && "tt".equals(getMoveString());
+        return (mMoveFlags & FLAG_PASS) != 0;
+    }
+
+    /**
+     * Whether the move is a pass on a board of the given size, tt being a pass
+     * only if neither side is bigger than 19.
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public boolean isPass(int width, int height) {
+        return isPass() && width <= 19 && height <= 19;
     }
 
     /**
@@ -267,8 +418,7 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
      * @return true if this is a placement move and not a game move
      */
     public boolean isPlacementMove() {
-        return mProperties.get("W") == null && mProperties.get("B") == null
-                && (mProperties.get("AB") != null || mProperties.get("AW") != null);
+        return (mMoveFlags & (FLAG_WHITE | FLAG_BLACK | FLAG_PLACEMENT)) == FLAG_PLACEMENT;
     }
 
     public void setNodeNo(int nodeNo) {
@@ -280,7 +430,7 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
     }
 
     public String getSgfComment() {
-        return mProperties.getOrDefault("C", "");
+        return getProperty("C", "");
     }
 
     public void setId(int id) {
@@ -292,46 +442,21 @@ public class GameNode implements Comparable<GameNode>, Cloneable {
     }
 
     public String toString() {
-        return "Props: keys=" + mProperties.keySet().toString() + " all=" + mProperties.toString() + " moveNo: " + mMoveNo + " children: " + mChildren.size() + " vdepth: " + mVisualDepth + " parentNode: " + getParentNode().hashCode();
+        return "Props: keys=" + mProperties.keySet().toString() + " all=" + mProperties.toString() + " moveNo: " + mMoveNo + " children: " + mChildren.size() + " vdepth: " + mVisualDepth + " parentNode: " + (mParentNode == null ? null : mParentNode.mId);
     }
 
+    /**
+     * Nodes are equal only to themselves, see isSameNode for comparing the
+     * content. The hash is a serial number given to the node when it is
+     * created, not the ID set by the parser, so it is unique and never changes.
+     */
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + mChildren.hashCode();
-        result = prime * result + mMoveNo;
-        result = prime * result + mId;
-        result = prime * result + ((mParentNode == null) ? 0 : mParentNode.mProperties.hashCode());
-        result = prime * result + mProperties.hashCode();
-        result = prime * result + mVisualDepth;
-        return result;
+        return mSerial;
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (this == obj)
-            return true;
-        if (obj == null)
-            return false;
-        if (getClass() != obj.getClass())
-            return false;
-        GameNode other = (GameNode) obj;
-        if (!mChildren.equals(other.mChildren))
-            return false;
-        if (mMoveNo != other.mMoveNo)
-            return false;
-        if (mParentNode == null) {
-            if (other.mParentNode != null)
-                return false;
-        } else if (!mParentNode.equals(other.mParentNode))
-            return false;
-        if (!mProperties.equals(other.mProperties))
-            return false;
-        if (mVisualDepth != other.mVisualDepth)
-            return false;
-        if (mId != other.mId)
-            return false;
-        return true;
+        return this == obj;
     }
 }
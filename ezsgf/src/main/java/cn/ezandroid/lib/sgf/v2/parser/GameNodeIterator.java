@@ -0,0 +1,51 @@
+package cn.ezandroid.lib.sgf.v2.parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the nodes below a start node depth first, in the order they are
+ * written to an SGF: a node, then the line that follows it through
+ * getNextNode(), then each of its variations. The pending nodes are kept on
+ * a stack of their own, so the depth of the tree doesn't matter.
+ */
+public class GameNodeIterator implements Iterator<GameNode> {
+
+    private final Deque<GameNode> mStack = new ArrayDeque<>();
+
+    public GameNodeIterator(GameNode startNode) {
+        if (startNode != null) {
+            mStack.push(startNode);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !mStack.isEmpty();
+    }
+
+    @Override
+    public GameNode next() {
+        if (mStack.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+
+        GameNode node = mStack.pop();
+        List<GameNode> children = node.getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            mStack.push(children.get(i));
+        }
+        if (node.getNextNode() != null) {
+            mStack.push(node.getNextNode());
+        }
+        return node;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
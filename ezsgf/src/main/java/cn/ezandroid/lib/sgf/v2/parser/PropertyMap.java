@@ -0,0 +1,270 @@
+package cn.ezandroid.lib.sgf.v2.parser;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A small map for the properties of a node. A node seldom has more than a few
+ * properties, so the keys and values sit next to each other in one array and
+ * are looked up by a linear scan. Keys are kept in the order they were added.
+ * <p>
+ * The property names coming from the parser are shared strings, so most
+ * lookups are decided by the reference check in String.equals().
+ * <p>
+ * The map of a node's properties tells the node when B, W, AB or AW change,
+ * whether through addProperty() or through the map itself, so the node's
+ * decoded move never goes stale.
+ */
+final class PropertyMap extends AbstractMap<String, String> {
+
+    private static final String[] EMPTY = new String[0];
+
+    // told about move property changes, null for other maps
+    private final GameNode mOwner;
+
+    // key, value, key, value...
+    private String[] mEntries = EMPTY;
+    private int mSize;
+    private int mModCount;
+
+    private EntrySet mEntrySet;
+
+    PropertyMap() {
+        this(null);
+    }
+
+    PropertyMap(GameNode owner) {
+        mOwner = owner;
+    }
+
+    private void changed(String key) {
+        if (mOwner != null && isMoveKey(key)) {
+            mOwner.decodeMove();
+        }
+    }
+
+    private static boolean isMoveKey(String key) {
+        switch (key.length()) {
+            case 1:
+                return key.charAt(0) == 'B' || key.charAt(0) == 'W';
+            case 2:
+                return key.charAt(0) == 'A' && (key.charAt(1) == 'B' || key.charAt(1) == 'W');
+            default:
+                return false;
+        }
+    }
+
+    private int indexOf(Object key) {
+        String[] entries = mEntries;
+        for (int i = 0, n = mSize * 2; i < n; i += 2) {
+            if (entries[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? mEntries[i + 1] : null;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+
+        int i = indexOf(key);
+        if (i >= 0) {
+            String old = mEntries[i + 1];
+            mEntries[i + 1] = value;
+            changed(key);
+            return old;
+        }
+
+        i = mSize * 2;
+        if (i == mEntries.length) {
+            mEntries = Arrays.copyOf(mEntries, i == 0 ? 2 : i * 2);
+        }
+        mEntries[i] = key;
+        mEntries[i + 1] = value;
+        mSize++;
+        mModCount++;
+        changed(key);
+        return null;
+    }
+
+    @Override
+    public String remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+
+        String old = mEntries[i + 1];
+        removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        String key = mEntries[i];
+        int n = mSize * 2;
+        System.arraycopy(mEntries, i + 2, mEntries, i, n - i - 2);
+        mEntries[n - 2] = null;
+        mEntries[n - 1] = null;
+        mSize--;
+        mModCount++;
+        changed(key);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(mEntries, 0, mSize * 2, null);
+        mSize = 0;
+        mModCount++;
+        if (mOwner != null) {
+            mOwner.decodeMove();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (mEntrySet == null) {
+            mEntrySet = new EntrySet();
+        }
+        return mEntrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, String>> {
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public void clear() {
+            PropertyMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+        private int mNext;
+        private int mLast = -1;
+        private int mExpectedModCount = mModCount;
+
+        @Override
+        public boolean hasNext() {
+            return mNext < mSize * 2;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (mExpectedModCount != mModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            mLast = mNext;
+            mNext += 2;
+            return new Entry(mLast);
+        }
+
+        @Override
+        public void remove() {
+            if (mLast < 0) {
+                throw new IllegalStateException();
+            }
+            if (mExpectedModCount != mModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(mLast);
+            mNext = mLast;
+            mLast = -1;
+            mExpectedModCount = mModCount;
+        }
+    }
+
+    /**
+     * An entry handed out by the iterator, setValue() writes through to the map.
+     */
+    private final class Entry implements Map.Entry<String, String> {
+
+        private final int mIndex;
+        private final int mEntryModCount = mModCount;
+        private final String mKey;
+        private String mValue;
+
+        Entry(int index) {
+            mIndex = index;
+            mKey = mEntries[index];
+            mValue = mEntries[index + 1];
+        }
+
+        @Override
+        public String getKey() {
+            return mKey;
+        }
+
+        @Override
+        public String getValue() {
+            return mValue;
+        }
+
+        @Override
+        public String setValue(String value) {
+            if (mEntryModCount != mModCount) {
+                throw new ConcurrentModificationException();
+            }
+            mEntries[mIndex + 1] = value;
+            changed(mKey);
+            String old = mValue;
+            mValue = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return mKey.equals(e.getKey()) && (mValue == null ? e.getValue() == null : mValue.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return mKey.hashCode() ^ (mValue == null ? 0 : mValue.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return mKey + "=" + mValue;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package cn.ezandroid.lib.sgf.v2.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares nodes by their content rather than identity, the way
+ * GameNode.isSameNode and Game.isSameGame need it. Nodes are the same if
+ * they have the same properties, move number and visual depth, and their
+ * parents are the same.
+ * <p>
+ * Pairs already found to be the same are remembered, so a node's parents
+ * are checked only once however many of its descendants get compared. The
+ * trees are walked with explicit stacks, so very long games don't run out
+ * of stack.
+ */
+public class SameGameHelper {
+
+    private final boolean mVerbose;
+    private final Map<GameNode, GameNode> mSameNodes = new IdentityHashMap<>();
+
+    public SameGameHelper() {
+        this(false);
+    }
+
+    public SameGameHelper(boolean verbose) {
+        mVerbose = verbose;
+    }
+
+    public boolean isSameNode(GameNode node, GameNode otherNode) {
+        // walk up until both lines meet a pair we already know
+        List<GameNode> nodes = new ArrayList<>();
+        List<GameNode> otherNodes = new ArrayList<>();
+        while (node != otherNode) {
+            if (node == null || otherNode == null) {
+                return false;
+            }
+            if (mSameNodes.get(node) == otherNode) {
+                break;
+            }
+            nodes.add(node);
+            otherNodes.add(otherNode);
+            node = node.getParentNode();
+            otherNode = otherNode.getParentNode();
+        }
+
+        // and check them from the top down
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            node = nodes.get(i);
+            otherNode = otherNodes.get(i);
+            if (!hasSameContent(node, otherNode)) {
+                return false;
+            }
+            mSameNodes.put(node, otherNode);
+        }
+        return true;
+    }
+
+    private static boolean hasSameContent(GameNode node, GameNode otherNode) {
+        return node.getClass() == otherNode.getClass()
+                && node.getMoveNo() == otherNode.getMoveNo()
+                && node.getVisualDepth() == otherNode.getVisualDepth()
+                && node.getProperties().equals(otherNode.getProperties());
+    }
+
+    /**
+     * Compares the trees starting at the given nodes, the next nodes and the
+     * variations in their order.
+     */
+    public boolean isSameTree(GameNode node, GameNode otherNode) {
+        Deque<GameNode> stack = new ArrayDeque<>();
+        Deque<GameNode> otherStack = new ArrayDeque<>();
+        stack.push(node);
+        otherStack.push(otherNode);
+
+        while (!stack.isEmpty()) {
+            node = stack.pop();
+            otherNode = otherStack.pop();
+
+            if (!isSameNode(node, otherNode)) {
+                if (mVerbose) {
+                    System.out.println("Nodes don't equal a=" + node + "\nb=" + otherNode);
+                }
+                return false;
+            }
+
+            // First let's check the nextNode
+            GameNode nextNode = node.getNextNode();
+            GameNode nextOtherNode = otherNode.getNextNode();
+            if (nextNode != null) {
+                if (nextOtherNode == null) {
+                    if (mVerbose) {
+                        System.out.println("Nodes don't equal node=" + nextNode + " otherNode=" + nextOtherNode);
+                    }
+                    return false;
+                }
+                stack.push(nextNode);
+                otherStack.push(nextOtherNode);
+            } else if (nextOtherNode != null) {
+                if (mVerbose) {
+                    System.out.println("Nodes don't equal node=" + nextNode + " otherNode=" + nextOtherNode);
+                }
+                return false;
+            }
+
+            // Secondly let's check the children nodes
+            List<GameNode> children = node.getChildren();
+            List<GameNode> otherChildren = otherNode.getChildren();
+            if (children.size() != otherChildren.size()) {
+                if (mVerbose) {
+                    System.out.println("Size of children don't equal node=" + children + " otherNode=" + otherChildren);
+                }
+                return false;
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+                otherStack.push(otherChildren.get(i));
+            }
+        }
+        return true;
+    }
+}
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public class Util {
 
@@ -14,50 +13,19 @@ public class Util {
             , "K", "L", "M", "N", "O"
             , "P", "Q", "R", "S", "T"};
 
+    // a-z then A-Z, so boards can be up to 52 lines
+    private static final String COORD_LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
     public static final Map<String, Integer> ALPHA_TO_COORD = new HashMap<String, Integer>() {{
-        put("a", 0);
-        put("b", 1);
-        put("c", 2);
-        put("d", 3);
-        put("e", 4);
-        put("f", 5);
-        put("g", 6);
-        put("h", 7);
-        put("i", 8);
-        put("j", 9);
-        put("k", 10);
-        put("l", 11);
-        put("m", 12);
-        put("n", 13);
-        put("o", 14);
-        put("p", 15);
-        put("q", 16);
-        put("r", 17);
-        put("s", 18);
-        put("t", 19);
+        for (int i = 0; i < COORD_LETTERS.length(); i++) {
+            put(COORD_LETTERS.charAt(i) + "", i);
+        }
     }};
 
     public static final Map<Integer, String> COORD_TO_ALPHA = new HashMap<Integer, String>() {{
-        put(0, "a");
-        put(1, "b");
-        put(2, "c");
-        put(3, "d");
-        put(4, "e");
-        put(5, "f");
-        put(6, "g");
-        put(7, "h");
-        put(8, "i");
-        put(9, "j");
-        put(10, "k");
-        put(11, "l");
-        put(12, "m");
-        put(13, "n");
-        put(14, "o");
-        put(15, "p");
-        put(16, "q");
-        put(17, "r");
-        put(18, "s");
-        put(19, "t");
+        for (int i = 0; i < COORD_LETTERS.length(); i++) {
+            put(i, COORD_LETTERS.charAt(i) + "");
+        }
     }};
 
     //@formatter:on
@@ -66,7 +34,7 @@ public class Util {
 
     public static void printNodeTree(GameNode rootNode) {
         if (rootNode.hasChildren()) {
-            Set<GameNode> children = rootNode.getChildren();
+            List<GameNode> children = rootNode.getChildren();
             for (GameNode node : children) {
                 printNodeTree(node);
             }
@@ -80,6 +48,19 @@ public class Util {
         return new int[]{ALPHA_TO_COORD.get(input.charAt(0) + ""), ALPHA_TO_COORD.get(input.charAt(1) + "")};
     }
 
+    /**
+     * Returns the coordinate of a single SGF letter, -1 if it isn't one.
+     */
+    public static int alphaToCoord(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 26;
+        }
+        return -1;
+    }
+
     public static Map<String, String> extractLabels(String str) {
         HashMap<String, String> rtrn = new HashMap<String, String>();
         // the LB property comes like 'fb:A][gb:C][jd:B
@@ -1,6 +1,8 @@
 package cn.ezandroid.lib.sgf.v2.parser;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -50,22 +52,40 @@ public class VisualDepthHelper {
         this.mDepthMatrix = depthMatrix;
     }
 
-    private void calculateVisualDepthFor(GameNode node, List<List<Integer>> depthMatrix, int minDepth, int variationDepth) {
-        int depth = findVisualDepthForNode(node, depthMatrix, minDepth, variationDepth);
-        GameNode lastNodeInLine = setVisualDepthForLine(node, depth);
-
-        GameNode activeNode = lastNodeInLine;
-        do {
-            if (activeNode.hasChildren()) {
-                for (GameNode gameNode : activeNode.getChildren()) {
-                    calculateVisualDepthFor(gameNode, depthMatrix, depth + 1, variationDepth);
+    private void calculateVisualDepthFor(GameNode startNode, List<List<Integer>> depthMatrix, int startDepth, int variationDepth) {
+        // a variation is laid out before the variations that branch off it,
+        // deeply nested books would overflow the call stack so these wait
+        // on a stack of our own
+        Deque<GameNode> nodes = new ArrayDeque<>();
+        Deque<Integer> minDepths = new ArrayDeque<>();
+        nodes.push(startNode);
+        minDepths.push(startDepth);
+
+        List<GameNode> branches = new ArrayList<>();
+        while (!nodes.isEmpty()) {
+            GameNode node = nodes.pop();
+            int minDepth = minDepths.pop();
+
+            int depth = findVisualDepthForNode(node, depthMatrix, minDepth, variationDepth);
+            GameNode lastNodeInLine = setVisualDepthForLine(node, depth);
+
+            branches.clear();
+            GameNode activeNode = lastNodeInLine;
+            do {
+                if (activeNode.hasChildren()) {
+                    branches.addAll(activeNode.getChildren());
+                }
+                if (activeNode == node) {
+                    break;
                 }
             }
-            if (activeNode.equals(node)) {
-                break;
+            while ((activeNode = activeNode.getPrevNode()) != null);
+
+            for (int i = branches.size() - 1; i >= 0; i--) {
+                nodes.push(branches.get(i));
+                minDepths.push(depth + 1);
             }
         }
-        while ((activeNode = activeNode.getPrevNode()) != null);
     }
 
     private void initializeMainLine(GameNode lastNode, List<List<Integer>> depthMatrix) {
@@ -0,0 +1,404 @@
+package cn.ezandroid.lib.sgf.v2.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import cn.ezandroid.lib.sgf.SGFLoader;
+import cn.ezandroid.lib.sgf.v2.Sgf;
+import cn.ezandroid.lib.sgf.v2.parser.Game;
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+/**
+ * Parses every SGF file below a set of directories on a fixed pool of
+ * threads and sums up the results in a {@link Report}.
+ * <p>
+ * The directories are walked on the calling thread, which waits whenever
+ * the given number of files are already queued or being parsed, so a huge
+ * archive is never listed into memory ahead of the workers. Files ending in
+ * .sgf or .sgf.gz are parsed, everything else is skipped.
+ * <p>
+ * Each file is decoded with the charset its CA property declares, see
+ * SGFLoader.detectCharset(), so archives with GB2312, GBK or Big5 files
+ * next to UTF-8 ones can be ingested in one go.
+ */
+public class SgfIngester {
+
+    private static final int SLOWEST_FILES = 10;
+    private static final int KEPT_FAILURES = 100;
+    // enough to find the CA property in the root node
+    private static final int CHARSET_SNIFF_SIZE = 8192;
+
+    /**
+     * Gets every file as it is done. Called from the worker threads.
+     */
+    public interface Listener {
+
+        void onFileParsed(FileResult result);
+    }
+
+    private final int mThreads;
+    private final int mMaxPending;
+
+    private volatile Charset mCharset = Charset.forName("UTF-8");
+    private volatile Listener mListener;
+
+    /**
+     * Uses a thread for each processor.
+     */
+    public SgfIngester() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public SgfIngester(int threads) {
+        this(threads, threads * 4);
+    }
+
+    /**
+     * @param threads    number of worker threads
+     * @param maxPending number of files that can be queued or parsed at a time
+     *                   before the walk waits for the workers
+     */
+    public SgfIngester(int threads, int maxPending) {
+        if (threads < 1 || maxPending < threads) {
+            throw new IllegalArgumentException("threads=" + threads + " maxPending=" + maxPending);
+        }
+        mThreads = threads;
+        mMaxPending = maxPending;
+    }
+
+    /**
+     * Sets the charset of the files that don't declare one, UTF-8 by default.
+     */
+    public void setCharset(Charset charset) {
+        mCharset = charset;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Parses the SGF files below the given directories, or the files
+     * themselves, and waits for all of them to finish.
+     */
+    public Report ingest(File... roots) throws InterruptedException {
+        final Report report = new Report();
+        final Semaphore pending = new Semaphore(mMaxPending);
+        final Charset charset = mCharset;
+        final Listener listener = mListener;
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        try {
+            Deque<File> dirs = new ArrayDeque<>();
+            for (File root : roots) {
+                if (root.isDirectory()) {
+                    dirs.push(root);
+                } else if (isSgf(root)) {
+                    submit(executor, pending, root, charset, report, listener);
+                }
+            }
+
+            while (!dirs.isEmpty()) {
+                File[] files = dirs.pop().listFiles();
+                if (files == null) {
+                    // not readable
+                    continue;
+                }
+                Arrays.sort(files);
+                for (int i = files.length - 1; i >= 0; i--) {
+                    if (files[i].isDirectory()) {
+                        dirs.push(files[i]);
+                    }
+                }
+                for (File file : files) {
+                    if (isSgf(file) && file.isFile()) {
+                        submit(executor, pending, file, charset, report, listener);
+                    }
+                }
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        report.setWallNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    private static void submit(ExecutorService executor, final Semaphore pending, final File file,
+                               final Charset charset, final Report report, final Listener listener) throws InterruptedException {
+        pending.acquire();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileResult result = parse(file, charset);
+                    report.add(result);
+                    if (listener != null) {
+                        listener.onFileParsed(result);
+                    }
+                } finally {
+                    pending.release();
+                }
+            }
+        });
+    }
+
+    private static boolean isSgf(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".sgf") || name.endsWith(".sgf.gz");
+    }
+
+    private static FileResult parse(File file, Charset charset) {
+        FileResult result = new FileResult(file);
+        long start = System.nanoTime();
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            if (file.getName().toLowerCase().endsWith(".gz")) {
+                in = new BufferedInputStream(new GZIPInputStream(in));
+            }
+            result.mCharset = detectCharset(in, charset);
+            Reader reader = new InputStreamReader(in, result.mCharset.newDecoder());
+            Game game = Sgf.createFromReader(reader, false);
+
+            int nodes = 0;
+            Iterator<GameNode> iterator = game.nodeIterator();
+            while (iterator.hasNext()) {
+                iterator.next();
+                nodes++;
+            }
+            result.mNodes = nodes;
+            result.mMoves = game.getNoMoves();
+        } catch (Exception e) {
+            result.mError = e;
+        } catch (StackOverflowError e) {
+            result.mError = e;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        result.mNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Reads the charset from the head of the stream and rewinds it.
+     */
+    private static Charset detectCharset(InputStream in, Charset fallback) throws IOException {
+        byte[] head = new byte[CHARSET_SNIFF_SIZE];
+        in.mark(head.length);
+        int length = 0;
+        int count;
+        while (length < head.length && (count = in.read(head, length, head.length - length)) != -1) {
+            length += count;
+        }
+        in.reset();
+
+        Charset charset = SGFLoader.detectCharset(head, 0, length, fallback);
+        // files saying gb2312 often have characters only GBK knows, and GBK
+        // reads any GB2312 text the same
+        if ("GB2312".equals(charset.name()) && Charset.isSupported("GBK")) {
+            charset = Charset.forName("GBK");
+        }
+        return charset;
+    }
+
+    /**
+     * What came out of parsing one file.
+     */
+    public static final class FileResult {
+
+        private final File mFile;
+        private Charset mCharset;
+        private long mNanos;
+        private int mNodes;
+        private int mMoves;
+        private Throwable mError;
+
+        FileResult(File file) {
+            mFile = file;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * The charset the file was decoded with, null if it couldn't be read.
+         */
+        public Charset getCharset() {
+            return mCharset;
+        }
+
+        /**
+         * Time to read and parse the file, in nanoseconds.
+         */
+        public long getNanos() {
+            return mNanos;
+        }
+
+        /**
+         * Number of nodes in the game, variations included.
+         */
+        public int getNodes() {
+            return mNodes;
+        }
+
+        public int getMoves() {
+            return mMoves;
+        }
+
+        public boolean isFailed() {
+            return mError != null;
+        }
+
+        public Throwable getError() {
+            return mError;
+        }
+
+        @Override
+        public String toString() {
+            return mFile + " " + TimeUnit.NANOSECONDS.toMillis(mNanos) + "ms "
+                    + (mError != null ? "failed: " + mError : mNodes + " nodes");
+        }
+    }
+
+    /**
+     * Totals of an ingest. Only the first failures and the slowest files are
+     * kept one by one, so the report stays small for any number of files.
+     */
+    public static final class Report {
+
+        private int mFiles;
+        private int mFailedFiles;
+        private long mNodes;
+        private long mMoves;
+        private long mParseNanos;
+        private long mWallNanos;
+        // the first KEPT_FAILURES of them
+        private final List<FileResult> mFailures = new ArrayList<>();
+        // slowest first
+        private final List<FileResult> mSlowest = new ArrayList<>(SLOWEST_FILES + 1);
+
+        synchronized void add(FileResult result) {
+            mFiles++;
+            mParseNanos += result.mNanos;
+            if (result.isFailed()) {
+                mFailedFiles++;
+                if (mFailures.size() < KEPT_FAILURES) {
+                    mFailures.add(result);
+                }
+            } else {
+                mNodes += result.mNodes;
+                mMoves += result.mMoves;
+            }
+
+            int i = mSlowest.size();
+            while (i > 0 && mSlowest.get(i - 1).mNanos < result.mNanos) {
+                i--;
+            }
+            if (i < SLOWEST_FILES) {
+                mSlowest.add(i, result);
+                if (mSlowest.size() > SLOWEST_FILES) {
+                    mSlowest.remove(SLOWEST_FILES);
+                }
+            }
+        }
+
+        synchronized void setWallNanos(long wallNanos) {
+            mWallNanos = wallNanos;
+        }
+
+        public synchronized int getFiles() {
+            return mFiles;
+        }
+
+        public synchronized int getFailedFiles() {
+            return mFailedFiles;
+        }
+
+        public synchronized long getNodes() {
+            return mNodes;
+        }
+
+        public synchronized long getMoves() {
+            return mMoves;
+        }
+
+        /**
+         * Time spent in all the files together, in nanoseconds.
+         */
+        public synchronized long getParseNanos() {
+            return mParseNanos;
+        }
+
+        /**
+         * Time from the start to the end of the ingest, in nanoseconds.
+         */
+        public synchronized long getWallNanos() {
+            return mWallNanos;
+        }
+
+        /**
+         * Returns the first failed files, at most 100 of them. getFailedFiles()
+         * has the total.
+         */
+        public synchronized List<FileResult> getFailures() {
+            return Collections.unmodifiableList(new ArrayList<>(mFailures));
+        }
+
+        public synchronized List<FileResult> getSlowest() {
+            return Collections.unmodifiableList(new ArrayList<>(mSlowest));
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder rtrn = new StringBuilder();
+            rtrn.append("Parsed ").append(mFiles).append(" files, ").append(mFailedFiles).append(" failed, ")
+                    .append(mNodes).append(" nodes, ").append(mMoves).append(" moves in ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(mWallNanos)).append("ms (")
+                    .append(TimeUnit.NANOSECONDS.toMillis(mParseNanos)).append("ms parsing)\n");
+            rtrn.append("Slowest:\n");
+            for (FileResult result : mSlowest) {
+                rtrn.append("  ").append(result).append('\n');
+            }
+            if (!mFailures.isEmpty()) {
+                rtrn.append(mFailures.size() < mFailedFiles ? "First failed:\n" : "Failed:\n");
+                for (FileResult result : mFailures) {
+                    rtrn.append("  ").append(result).append('\n');
+                }
+            }
+            return rtrn.toString();
+        }
+    }
+}
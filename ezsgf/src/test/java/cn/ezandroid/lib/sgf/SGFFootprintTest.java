@@ -0,0 +1,130 @@
+package cn.ezandroid.lib.sgf;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how loaded games are stored, and measures the heap they retain.
+ */
+public class SGFFootprintTest {
+
+    private static final String FILE = "book1485.sgf";
+    private static final String CHARSET = "GB2312";
+
+    // Games held while measuring, more make the measurement steadier
+    private static final int GAMES = 20;
+
+    // Retained bytes per byte of SGF data a loaded game may take at most.
+    // It is about 11 with the arrays of SGFTree and SGFLeaf, the linked lists
+    // they had before took about 16.
+    private static final int MAX_RETAINED_RATIO = 14;
+
+    @Test
+    public void leavesOnlyAllocateAnArrayForSeveralTokens() throws Exception {
+        Field tokens = SGFLeaf.class.getDeclaredField("mTokens");
+        tokens.setAccessible(true);
+
+        int leaves = 0;
+        Iterator<SGFLeaf> it = leaves(load(false).getTree());
+        while (it.hasNext()) {
+            SGFLeaf leaf = it.next();
+            int count = leaf.getTokenCount();
+            Object[] array = (Object[]) tokens.get(leaf);
+            if (count <= 1) {
+                assertNull(array);
+            } else {
+                assertTrue(array.length >= count && array.length <= count + (count >> 1) + 1);
+            }
+            leaves++;
+        }
+        assertTrue(leaves > 0);
+    }
+
+    @Test
+    public void treesWithoutVariationsHaveNoVariationList() throws Exception {
+        Field variations = SGFTree.class.getDeclaredField("mVariations");
+        variations.setAccessible(true);
+        checkVariations(load(false).getTree(), variations);
+    }
+
+    private static void checkVariations(SGFTree tree, Field variations) throws Exception {
+        if (tree.getTreeCount() == 0) {
+            assertNull(variations.get(tree));
+        }
+        Iterator<SGFTree> trees = tree.getTrees();
+        while (trees.hasNext()) {
+            checkVariations(trees.next(), variations);
+        }
+    }
+
+    @Test
+    public void retainedHeapPerGame() throws Exception {
+        int size = SGFTestUtils.readResource(FILE).length;
+        long eager = retainedPerGame(false);
+        long lazy = retainedPerGame(true);
+        System.out.println(FILE + " (" + size + " bytes) retains " + eager + " bytes per game, "
+                + lazy + " bytes lazily loaded");
+
+        assertTrue("retained " + eager + " bytes for " + size, eager < (long) size * MAX_RETAINED_RATIO);
+        // A lazy game keeps the data and the offsets of the leaves, not the tokens
+        assertTrue("lazy " + lazy + " eager " + eager, lazy < eager / 2);
+    }
+
+    private static long retainedPerGame(boolean lazy) throws Exception {
+        SGFGame[] games = new SGFGame[GAMES];
+        long before = usedHeap();
+        for (int i = 0; i < games.length; i++) {
+            games[i] = load(lazy);
+        }
+        long after = usedHeap();
+        // Uses the games after measuring, so they stay reachable until then
+        assertEquals(GAMES, games.length);
+        return (after - before) / games.length;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static SGFGame load(boolean lazy) throws Exception {
+        SGFLoader loader = new SGFLoader();
+        loader.setLazy(lazy);
+        return loader.load(new ByteArrayInputStream(SGFTestUtils.readResource(FILE)), CHARSET);
+    }
+
+    /**
+     * Iterates the leaves of a tree and all of its variations.
+     */
+    private static Iterator<SGFLeaf> leaves(SGFTree root) {
+        List<SGFLeaf> all = new ArrayList<>();
+        ArrayDeque<SGFTree> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            SGFTree tree = pending.pop();
+            Iterator<SGFLeaf> leaves = tree.getLeaves();
+            while (leaves.hasNext()) {
+                all.add(leaves.next());
+            }
+            Iterator<SGFTree> trees = tree.getTrees();
+            while (trees.hasNext()) {
+                pending.push(trees.next());
+            }
+        }
+        return all.iterator();
+    }
+}
@@ -0,0 +1,60 @@
+package cn.ezandroid.lib.sgf;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class SGFLoaderCharsetTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    private static Charset detect(byte[] data) {
+        return SGFLoader.detectCharset(data, 0, data.length, LATIN_1);
+    }
+
+    private static byte[] concat(String before, byte[] middle, String after) {
+        byte[] head = before.getBytes(LATIN_1);
+        byte[] tail = after.getBytes(LATIN_1);
+        byte[] data = new byte[head.length + middle.length + tail.length];
+        System.arraycopy(head, 0, data, 0, head.length);
+        System.arraycopy(middle, 0, data, head.length, middle.length);
+        System.arraycopy(tail, 0, data, head.length + middle.length, tail.length);
+        return data;
+    }
+
+    @Test
+    public void declaredCharsetWinsOverUtf8LookingText() {
+        // GB2312 bytes of a short name that happen to be valid UTF-8 as well
+        byte[] name = {(byte) 0xC4, (byte) 0xA3};
+        assertEquals(Charset.forName("GB2312"), detect(concat("(;CA[gb2312]PB[", name, "])")));
+        assertEquals(Charset.forName("GB2312"), detect(concat("(;PB[", name, "]CA[gb2312])")));
+    }
+
+    @Test
+    public void utf8TextWithoutCharsetIsUtf8() {
+        assertEquals(UTF_8, detect("(;PB[柯洁])".getBytes(UTF_8)));
+        assertEquals(UTF_8, detect("(;CA[no-such-charset]PB[柯洁])".getBytes(UTF_8)));
+    }
+
+    @Test
+    public void byteOrderMarkMeansUtf8() {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        assertEquals(UTF_8, detect(concat("", bom, "(;CA[gb2312]PB[a])")));
+    }
+
+    @Test
+    public void asciiOrInvalidTextFallsBack() {
+        assertEquals(LATIN_1, detect("(;PB[a]PW[b])".getBytes(LATIN_1)));
+        assertEquals(LATIN_1, detect(concat("(;PB[", new byte[]{(byte) 0xB0, (byte) 0xA1}, "])")));
+    }
+
+    @Test
+    public void characterCutOffAtTheEndIsNoEvidence() {
+        assertEquals(LATIN_1, detect(concat("(;PB[", new byte[]{(byte) 0xE6, (byte) 0x9F}, "")));
+        // but the complete characters before it still count
+        assertEquals(UTF_8, detect(concat("(;PB[", new byte[]{(byte) 0xC3, (byte) 0xA9, (byte) 0xE6, (byte) 0x9F}, "")));
+    }
+}
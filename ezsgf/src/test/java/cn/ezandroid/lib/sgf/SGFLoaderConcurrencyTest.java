@@ -0,0 +1,144 @@
+package cn.ezandroid.lib.sgf;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Loads a fixed corpus with one SGFLoader shared by many threads and checks
+ * that every result is the same as a load of the same data on one thread.
+ */
+public class SGFLoaderConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The files of the corpus and their charsets
+    private static final String[][] CORPUS = {
+            {"sina.sgf", "UTF-8"},
+            {"test.sgf", "UTF-8"},
+            {"simple.sgf", "GB2312"},
+            {"complex.sgf", "GB2312"},
+            {"book1485.sgf", "GB2312"},
+    };
+
+    @Test
+    public void loadsOnManyThreadsLikeOnOne() throws Exception {
+        checkLoads(false);
+    }
+
+    @Test
+    public void lazyLoadsOnManyThreadsLikeOnOne() throws Exception {
+        checkLoads(true);
+    }
+
+    private void checkLoads(boolean lazy) throws Exception {
+        final SGFLoader loader = new SGFLoader();
+        loader.setLazy(lazy);
+
+        final byte[][] data = new byte[CORPUS.length][];
+        String[] expected = new String[CORPUS.length];
+        for (int i = 0; i < CORPUS.length; i++) {
+            data[i] = SGFTestUtils.readResource(CORPUS[i][0]);
+            expected[i] = SGFTestUtils.describe(loader.load(new ByteArrayInputStream(data[i]), CORPUS[i][1]));
+        }
+
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (int i = 0; i < THREADS * ROUNDS; i++) {
+            final int game = i % CORPUS.length;
+            tasks.add(() -> SGFTestUtils.describe(
+                    loader.load(new ByteArrayInputStream(data[game]), CORPUS[game][1])));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = executor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                int game = i % CORPUS.length;
+                assertEquals(CORPUS[game][0], expected[game], results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lazyGameReadsTheSameOnEveryThread() throws Exception {
+        SGFLoader loader = new SGFLoader();
+        byte[] data = SGFTestUtils.readResource("book1485.sgf");
+        String expected = SGFTestUtils.describe(loader.load(new ByteArrayInputStream(data), "GB2312"));
+
+        loader.setLazy(true);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                // Every thread reads the leaves of one game for the first time
+                final SGFGame game = loader.load(new ByteArrayInputStream(data), "GB2312");
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<String>> results = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        return SGFTestUtils.describe(game);
+                    }));
+                }
+                start.countDown();
+                for (Future<String> result : results) {
+                    assertEquals(expected, result.get());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void loadsCollectionsOnManyThreadsLikeOneByOne() throws Exception {
+        final SGFLoader loader = new SGFLoader();
+
+        // The corpus as one UTF-8 collection
+        ByteArrayOutputStream collection = new ByteArrayOutputStream();
+        String[] expected = new String[CORPUS.length];
+        for (int i = 0; i < CORPUS.length; i++) {
+            byte[] data = SGFTestUtils.readResource(CORPUS[i][0]);
+            byte[] utf8 = new String(data, CORPUS[i][1]).getBytes(UTF_8);
+            expected[i] = SGFTestUtils.describe(loader.load(new ByteArrayInputStream(utf8), UTF_8));
+            collection.write(utf8);
+            collection.write('\n');
+        }
+        final byte[] data = collection.toByteArray();
+
+        // The loads share the executor that parses the games as well
+        final ExecutorService gameExecutor = Executors.newFixedThreadPool(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<List<SGFGame>>> tasks = new ArrayList<>();
+            for (int i = 0; i < THREADS * 2; i++) {
+                tasks.add(() -> loader.loadCollection(new ByteArrayInputStream(data), UTF_8, gameExecutor));
+            }
+            for (Future<List<SGFGame>> result : executor.invokeAll(tasks)) {
+                List<SGFGame> games = result.get();
+                assertEquals(CORPUS.length, games.size());
+                for (int i = 0; i < CORPUS.length; i++) {
+                    assertEquals(CORPUS[i][0], expected[i], SGFTestUtils.describe(games.get(i)));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            gameExecutor.shutdownNow();
+        }
+    }
+}
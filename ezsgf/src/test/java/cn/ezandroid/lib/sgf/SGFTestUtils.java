@@ -0,0 +1,122 @@
+package cn.ezandroid.lib.sgf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import cn.ezandroid.lib.sgf.tokens.InfoToken;
+import cn.ezandroid.lib.sgf.tokens.SGFToken;
+
+/**
+ * Helpers shared by the tests of the v1 loader.
+ */
+final class SGFTestUtils {
+
+    private SGFTestUtils() {
+    }
+
+    static byte[] readResource(String name) throws IOException {
+        InputStream is = SGFTestUtils.class.getResourceAsStream("/sgf/" + name);
+        if (is == null) {
+            throw new IOException("Missing test resource " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Describes the structure of a game: its info tokens, trees and leaves and
+     * the class and field values of every token.  Two games load the same data
+     * the same way if their descriptions are equal.
+     */
+    static String describe(SGFGame game) {
+        if (game == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder();
+        Iterator<InfoToken> infos = game.getInfoTokens();
+        while (infos.hasNext()) {
+            out.append("info ");
+            describeValue(infos.next(), out);
+            out.append('\n');
+        }
+        describeTree(game.getTree(), out, 0);
+        return out.toString();
+    }
+
+    private static void describeTree(SGFTree tree, StringBuilder out, int depth) {
+        out.append(depth).append(" (\n");
+        Iterator<SGFLeaf> leaves = tree.getLeaves();
+        while (leaves.hasNext()) {
+            out.append(';');
+            Iterator<SGFToken> tokens = leaves.next().getTokens();
+            while (tokens.hasNext()) {
+                describeValue(tokens.next(), out);
+                out.append(' ');
+            }
+            out.append('\n');
+        }
+        Iterator<SGFTree> trees = tree.getTrees();
+        while (trees.hasNext()) {
+            describeTree(trees.next(), out, depth + 1);
+        }
+        out.append(depth).append(" )\n");
+    }
+
+    private static void describeValue(Object value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+        } else if (value.getClass().isArray()) {
+            out.append('[');
+            for (int i = 0; i < Array.getLength(value); i++) {
+                describeValue(Array.get(value, i), out);
+                out.append(',');
+            }
+            out.append(']');
+        } else if (value instanceof Collection) {
+            describeValue(((Collection<?>) value).toArray(), out);
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                describeValue(entry.getKey(), out);
+                out.append('=');
+                describeValue(entry.getValue(), out);
+                out.append(',');
+            }
+        } else if (value instanceof SGFToken || value instanceof Point) {
+            out.append(value.getClass().getSimpleName()).append('{');
+            for (Class<?> type = value.getClass(); type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    out.append(field.getName()).append('=');
+                    try {
+                        describeValue(field.get(value), out);
+                    } catch (IllegalAccessException e) {
+                        throw new AssertionError(e);
+                    }
+                    out.append(';');
+                }
+            }
+            out.append('}');
+        } else {
+            out.append(value);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package cn.ezandroid.lib.sgf.v2;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import cn.ezandroid.lib.sgf.v2.parser.Game;
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParserTest {
+
+    private static GameNode firstMove(String sgf) {
+        Game game = Sgf.createFromString(sgf);
+        Game streamed = Sgf.createFromReader(new StringReader(sgf), false);
+        assertTrue(game.isSameGame(streamed));
+        return game.getRootNode().getNextNode();
+    }
+
+    @Test
+    public void escapedBracketDoesNotCloseAValue() {
+        GameNode move = firstMove("(;GM[1];B[aa]C[a\\]b];W[bb])");
+        assertEquals("a\\]b", move.getSgfComment());
+        assertTrue(move.getNextNode().isWhite());
+    }
+
+    @Test
+    public void escapedBackslashBeforeTheBracketClosesTheValue() {
+        GameNode move = firstMove("(;GM[1];B[aa]C[foo\\\\];W[bb])");
+        assertEquals("foo\\\\", move.getSgfComment());
+        assertTrue(move.getNextNode().isWhite());
+        assertEquals("bb", move.getNextNode().getMoveString());
+    }
+
+    @Test
+    public void backslashesPairUpFromTheFirst() {
+        // an escaped backslash, then an escaped bracket, the value goes on
+        GameNode move = firstMove("(;GM[1];B[aa]C[x\\\\\\]y\\\\\\\\];W[bb])");
+        assertEquals("x\\\\\\]y\\\\\\\\", move.getSgfComment());
+        assertTrue(move.getNextNode().isWhite());
+    }
+}
@@ -0,0 +1,135 @@
+package cn.ezandroid.lib.sgf.v2.board;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import cn.ezandroid.lib.sgf.v2.Sgf;
+import cn.ezandroid.lib.sgf.v2.parser.Game;
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Helpers shared by the tests of the board.
+ */
+final class BoardTestUtils {
+
+    // The games of the test resources and their charsets
+    static final String[][] GAMES = {
+            {"sina.sgf", "UTF-8"},
+            {"test.sgf", "UTF-8"},
+            {"simple.sgf", "GB2312"},
+            {"complex.sgf", "GB2312"},
+            {"book1485.sgf", "GB2312"},
+    };
+
+    private BoardTestUtils() {
+    }
+
+    static Game loadGame(String name, String charset) throws IOException {
+        InputStream is = BoardTestUtils.class.getResourceAsStream("/sgf/" + name);
+        if (is == null) {
+            throw new IOException("Missing test resource " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return Sgf.createFromString(new String(out.toByteArray(), charset));
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Returns the root of the game and the nodes of its main line.
+     */
+    static List<GameNode> mainLine(Game game) {
+        List<GameNode> line = new ArrayList<>();
+        for (GameNode node = game.getRootNode(); node != null; node = node.getNextNode()) {
+            line.add(node);
+        }
+        return line;
+    }
+
+    /**
+     * Returns every node of the game, the root first and each node before
+     * the nodes under it.
+     */
+    static List<GameNode> allNodes(Game game) {
+        List<GameNode> nodes = new ArrayList<>();
+        List<GameNode> pending = new ArrayList<>();
+        pending.add(game.getRootNode());
+        while (!pending.isEmpty()) {
+            GameNode node = pending.remove(pending.size() - 1);
+            nodes.add(node);
+            List<GameNode> children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.add(children.get(i));
+            }
+            if (node.getNextNode() != null) {
+                pending.add(node.getNextNode());
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Plays the nodes from the root down to the given one on a flood fill
+     * board.
+     */
+    static FloodFillBoard replay(GameNode node, int width, int height) {
+        List<GameNode> path = new ArrayList<>();
+        for (; node != null; node = node.getParentNode()) {
+            path.add(node);
+        }
+        FloodFillBoard board = new FloodFillBoard(width, height);
+        for (int i = path.size() - 1; i >= 0; i--) {
+            board.makeMove(path.get(i));
+        }
+        return board;
+    }
+
+    static void assertSameStones(String message, FloodFillBoard expected, VirtualBoard actual) {
+        assertEquals(message, expected.getWidth(), actual.getWidth());
+        assertEquals(message, expected.getHeight(), actual.getHeight());
+        for (int x = 0; x < expected.getWidth(); x++) {
+            for (int y = 0; y < expected.getHeight(); y++) {
+                assertEquals(message + " at " + x + "," + y, expected.getColor(x, y), actual.getColor(x, y));
+            }
+        }
+    }
+
+    /**
+     * Checks that the boards have the same stones and groups, and that
+     * Group.isDead() says the same of every group.
+     */
+    static void assertSameBoard(String message, FloodFillBoard expected, VirtualBoard actual) {
+        assertSameStones(message, expected, actual);
+        StoneState[] colors = {StoneState.BLACK, StoneState.WHITE};
+        for (StoneState color : colors) {
+            Set<Group> groups = actual.findDistinctGroups(color);
+            assertEquals(message + " " + color + " groups", stones(expected.findDistinctGroups(color)), stones(groups));
+            for (Group group : groups) {
+                assertEquals(message + " " + color + " group is dead", group.isDead(expected.getSquares()),
+                        group.isDead(actual));
+            }
+        }
+    }
+
+    private static Set<Set<Square>> stones(Set<Group> groups) {
+        Set<Set<Square>> stones = new HashSet<>();
+        for (Group group : groups) {
+            stones.add(group.mStones);
+        }
+        return stones;
+    }
+}
@@ -0,0 +1,139 @@
+package cn.ezandroid.lib.sgf.v2.board;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+/**
+ * The way VirtualBoard played moves before it kept chains: after every move
+ * all the groups of the opponent are found with a flood fill and the ones
+ * Group.isDead() finds without liberties are taken off. Undoing a move takes
+ * its stone off and puts back the groups it removed. The tests check
+ * VirtualBoard against it.
+ */
+final class FloodFillBoard {
+
+    private final Square[][] mBoard;
+    // the groups each move took off, for undoMove
+    private final Map<GameNode, Set<Group>> mMoveToRemovedGroups = new HashMap<>();
+
+    FloodFillBoard(int width, int height) {
+        mBoard = new Square[width][height];
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                mBoard[i][j] = new Square(StoneState.EMPTY, i, j);
+            }
+        }
+    }
+
+    FloodFillBoard copy() {
+        FloodFillBoard copy = new FloodFillBoard(mBoard.length, mBoard[0].length);
+        for (int i = 0; i < mBoard.length; i++) {
+            System.arraycopy(mBoard[i], 0, copy.mBoard[i], 0, mBoard[i].length);
+        }
+        copy.mMoveToRemovedGroups.putAll(mMoveToRemovedGroups);
+        return copy;
+    }
+
+    void makeMove(GameNode move) {
+        if (move.getMoveString() != null && !move.isPass(getWidth(), getHeight()) && !move.isPlacementMove()) {
+            int x = move.getMoveX();
+            int y = move.getMoveY();
+            StoneState color = move.getColorAsEnum();
+            mBoard[x][y] = new Square(color, x, y);
+            mMoveToRemovedGroups.put(move, removeDeadGroups(color == StoneState.WHITE ? StoneState.BLACK : StoneState.WHITE));
+        }
+    }
+
+    void undoMove(GameNode move) {
+        if (move.getMoveString() != null && !move.isPass(getWidth(), getHeight()) && !move.isPlacementMove()) {
+            mBoard[move.getMoveX()][move.getMoveY()] = new Square(move.getMoveX(), move.getMoveY());
+        }
+        Set<Group> removedGroups = mMoveToRemovedGroups.get(move);
+        if (removedGroups != null) {
+            for (Group group : removedGroups) {
+                for (Square square : group.mStones) {
+                    mBoard[square.x][square.y] = square;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the move took off any stones when it was last played.
+     */
+    boolean hasCaptured(GameNode move) {
+        Set<Group> removedGroups = mMoveToRemovedGroups.get(move);
+        return removedGroups != null && !removedGroups.isEmpty();
+    }
+
+    private Set<Group> removeDeadGroups(StoneState color) {
+        Set<Group> removed = new HashSet<>();
+        for (Group group : findDistinctGroups(color)) {
+            if (group.isDead(mBoard)) {
+                for (Square square : group.mStones) {
+                    mBoard[square.x][square.y] = new Square(square.x, square.y);
+                }
+                removed.add(group);
+            }
+        }
+        return removed;
+    }
+
+    Set<Group> findDistinctGroups(StoneState color) {
+        Set<Square> alreadyChecked = new HashSet<>();
+        Set<Group> groups = new HashSet<>();
+        for (int i = 0; i < mBoard.length; i++) {
+            for (int j = 0; j < mBoard[i].length; j++) {
+                if (mBoard[i][j].isOfColor(color) && !alreadyChecked.contains(mBoard[i][j])) {
+                    Group group = populateGroup(i, j, color);
+                    alreadyChecked.addAll(group.mStones);
+                    groups.add(group);
+                }
+            }
+        }
+        return groups;
+    }
+
+    private Group populateGroup(int i, int j, StoneState color) {
+        Group group = new Group();
+        ArrayDeque<Square> pending = new ArrayDeque<>();
+        pending.push(mBoard[i][j]);
+        while (!pending.isEmpty()) {
+            Square square = pending.pop();
+            if (!square.isOfColor(color) || group.contains(square)) {
+                continue;
+            }
+            group.addStone(square);
+            if (square.x > 0)
+                pending.push(mBoard[square.x - 1][square.y]);
+            if (square.x + 1 < mBoard.length)
+                pending.push(mBoard[square.x + 1][square.y]);
+            if (square.y > 0)
+                pending.push(mBoard[square.x][square.y - 1]);
+            if (square.y + 1 < mBoard[square.x].length)
+                pending.push(mBoard[square.x][square.y + 1]);
+        }
+        return group;
+    }
+
+    StoneState getColor(int x, int y) {
+        return mBoard[x][y].getColor();
+    }
+
+    Square[][] getSquares() {
+        return mBoard;
+    }
+
+    int getWidth() {
+        return mBoard.length;
+    }
+
+    int getHeight() {
+        return mBoard[0].length;
+    }
+}
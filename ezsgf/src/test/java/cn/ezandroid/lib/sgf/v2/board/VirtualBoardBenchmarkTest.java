@@ -0,0 +1,74 @@
+package cn.ezandroid.lib.sgf.v2.board;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times replaying the main lines of the test games with VirtualBoard and with
+ * the flood fill it used before it kept chains.
+ */
+public class VirtualBoardBenchmarkTest {
+
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 20;
+    // the size of all the test games
+    private static final int SIZE = 19;
+
+    @Test
+    public void replayIsFasterThanTheFloodFill() throws Exception {
+        List<List<GameNode>> lines = new ArrayList<>();
+        int moves = 0;
+        for (String[] file : BoardTestUtils.GAMES) {
+            List<GameNode> line = BoardTestUtils.mainLine(BoardTestUtils.loadGame(file[0], file[1]));
+            lines.add(line);
+            moves += line.size();
+        }
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            replay(lines);
+            replayFloodFill(lines);
+        }
+        long chains = 0;
+        long floodFill = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            replay(lines);
+            chains += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            replayFloodFill(lines);
+            floodFill += System.nanoTime() - start;
+        }
+        System.out.println("Replaying " + lines.size() + " games, " + moves + " nodes: "
+                + chains / ROUNDS / 1000 + "us with chains, "
+                + floodFill / ROUNDS / 1000 + "us with the flood fill");
+
+        assertTrue("chains " + chains + "ns, flood fill " + floodFill + "ns", chains < floodFill);
+    }
+
+    private static void replay(List<List<GameNode>> lines) {
+        for (List<GameNode> line : lines) {
+            VirtualBoard board = new VirtualBoard(SIZE);
+            GameNode prevMove = null;
+            for (GameNode node : line) {
+                board.makeMove(node, prevMove);
+                prevMove = node;
+            }
+        }
+    }
+
+    private static void replayFloodFill(List<List<GameNode>> lines) {
+        for (List<GameNode> line : lines) {
+            FloodFillBoard board = new FloodFillBoard(SIZE, SIZE);
+            for (GameNode node : line) {
+                board.makeMove(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package cn.ezandroid.lib.sgf.v2.board;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import cn.ezandroid.lib.sgf.v2.parser.Game;
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+/**
+ * Checks the positions fastForwardTo restores from keyframes against replays
+ * of the games from the root.
+ */
+public class VirtualBoardKeyframeTest {
+
+    private static final long SEED = 42;
+
+    @Test
+    public void restoredPositionsMatchReplaysFromTheRoot() throws Exception {
+        Random random = new Random(SEED);
+        for (String[] file : BoardTestUtils.GAMES) {
+            Game game = BoardTestUtils.loadGame(file[0], file[1]);
+            List<GameNode> nodes = BoardTestUtils.allNodes(game);
+            Map<GameNode, FloodFillBoard> expected = new HashMap<>();
+            for (GameNode node : nodes) {
+                expected.put(node, BoardTestUtils.replay(node, game.getBoardWidth(), game.getBoardHeight()));
+            }
+
+            // in tree order every jump starts from the keyframe of the node
+            // before, then the jumps go all over the tree
+            checkJumps(file[0], game, nodes, expected, 1);
+            Collections.shuffle(nodes, random);
+            checkJumps(file[0], game, nodes, expected, 1);
+            checkJumps(file[0], game, nodes, expected, VirtualBoard.DEFAULT_KEYFRAME_INTERVAL);
+        }
+    }
+
+    private static void checkJumps(String file, Game game, List<GameNode> nodes,
+                                   Map<GameNode, FloodFillBoard> expected, int interval) {
+        VirtualBoard board = new VirtualBoard(game);
+        board.setKeyframeInterval(interval);
+        for (GameNode node : nodes) {
+            board.fastForwardTo(node);
+            BoardTestUtils.assertSameBoard(file + " node " + node.getNodeNo(), expected.get(node), board);
+        }
+    }
+
+    @Test
+    public void changedMovesAreNotRestoredFromKeyframes() throws Exception {
+        Game game = BoardTestUtils.loadGame("complex.sgf", "GB2312");
+        List<GameNode> line = BoardTestUtils.mainLine(game);
+        GameNode last = line.get(line.size() - 1);
+        VirtualBoard board = new VirtualBoard(game);
+        board.setKeyframeInterval(1);
+
+        // a move in the middle of the line goes somewhere else, through
+        // addProperty and through the property map
+        GameNode edited = line.get(line.size() / 2);
+        String color = edited.getColor();
+        String point = edited.getMoveString();
+        board.fastForwardTo(last);
+        edited.addProperty(color, "aa");
+        checkPosition(board, last);
+        edited.getProperties().put(color, point);
+        checkPosition(board, last);
+
+        // the move is taken out
+        edited.getProperties().remove(color);
+        checkPosition(board, last);
+        edited.addProperty(color, point);
+        checkPosition(board, last);
+    }
+
+    @Test
+    public void movedNodesAreNotRestoredFromKeyframes() throws Exception {
+        Game game = BoardTestUtils.loadGame("complex.sgf", "GB2312");
+        List<GameNode> line = BoardTestUtils.mainLine(game);
+        GameNode last = line.get(line.size() - 1);
+        VirtualBoard board = new VirtualBoard(game);
+        board.setKeyframeInterval(1);
+
+        // a part of the line is skipped
+        GameNode moved = line.get(line.size() / 2);
+        GameNode parent = moved.getParentNode();
+        board.fastForwardTo(last);
+        moved.setParentNode(line.get(line.size() / 4));
+        checkPosition(board, last);
+        moved.setParentNode(parent);
+        checkPosition(board, last);
+    }
+
+    private static void checkPosition(VirtualBoard board, GameNode node) {
+        board.fastForwardTo(node);
+        FloodFillBoard expected = BoardTestUtils.replay(node, board.getWidth(), board.getHeight());
+        BoardTestUtils.assertSameBoard("node " + node.getNodeNo(), expected, board);
+    }
+}
@@ -0,0 +1,91 @@
+package cn.ezandroid.lib.sgf.v2.board;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import cn.ezandroid.lib.sgf.v2.parser.Game;
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the games of the test resources and checks every position against
+ * the flood fill VirtualBoard used before it kept chains.
+ */
+public class VirtualBoardReplayTest {
+
+    /**
+     * A node to play, or to take back once the nodes under it are done.
+     */
+    private static final class Visit {
+
+        final GameNode mNode;
+        // the position before the node
+        final FloodFillBoard mBefore;
+        final boolean mLeaving;
+
+        Visit(GameNode node, FloodFillBoard before, boolean leaving) {
+            mNode = node;
+            mBefore = before;
+            mLeaving = leaving;
+        }
+    }
+
+    @Test
+    public void everyPositionMatchesTheFloodFill() throws Exception {
+        int captures = 0;
+        for (String[] file : BoardTestUtils.GAMES) {
+            Game game = BoardTestUtils.loadGame(file[0], file[1]);
+            VirtualBoard board = new VirtualBoard(game);
+
+            // walks the tree the way a viewer does, playing a node on the way
+            // down and taking it back on the way up
+            Deque<Visit> pending = new ArrayDeque<>();
+            pending.push(new Visit(game.getRootNode(), new FloodFillBoard(board.getWidth(), board.getHeight()), false));
+            while (!pending.isEmpty()) {
+                Visit visit = pending.pop();
+                GameNode node = visit.mNode;
+                String message = file[0] + " node " + node.getNodeNo() + " " + node.getMoveString();
+                if (visit.mLeaving) {
+                    board.undoMove(node, node.getParentNode());
+                    BoardTestUtils.assertSameStones("undo " + message, visit.mBefore, board);
+                    continue;
+                }
+
+                board.makeMove(node, node.getParentNode());
+                FloodFillBoard after = visit.mBefore.copy();
+                after.makeMove(node);
+                BoardTestUtils.assertSameBoard(message, after, board);
+                if (node.isMove() && !node.isPass(board.getWidth(), board.getHeight())
+                        && countStones(after) <= countStones(visit.mBefore)) {
+                    captures++;
+                }
+
+                pending.push(new Visit(node, visit.mBefore, true));
+                List<GameNode> children = node.getChildren();
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    pending.push(new Visit(children.get(i), after, false));
+                }
+                if (node.getNextNode() != null) {
+                    pending.push(new Visit(node.getNextNode(), after, false));
+                }
+            }
+        }
+        assertTrue("the games have no captures", captures > 0);
+    }
+
+    private static int countStones(FloodFillBoard board) {
+        int count = 0;
+        for (int x = 0; x < board.getWidth(); x++) {
+            for (int y = 0; y < board.getHeight(); y++) {
+                if (board.getColor(x, y) != StoneState.EMPTY) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,68 @@
+package cn.ezandroid.lib.sgf.v2.board;
+
+import org.junit.Test;
+
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VirtualBoardTest {
+
+    private static GameNode move(GameNode parent, String color, String point) {
+        GameNode node = new GameNode(parent);
+        node.addProperty(color, point);
+        if (parent != null) {
+            parent.addChild(node);
+        }
+        return node;
+    }
+
+    @Test
+    public void getColorReadsThePosition() {
+        VirtualBoard board = new VirtualBoard(5, 7);
+        GameNode black = move(null, "B", "ab");
+        board.makeMove(black, null);
+        board.makeMove(move(black, "W", "eg"), black);
+
+        assertEquals(StoneState.BLACK, board.getColor(0, 1));
+        assertEquals(StoneState.WHITE, board.getColor(4, 6));
+        assertEquals(StoneState.EMPTY, board.getColor(1, 0));
+        try {
+            board.getColor(5, 0);
+            fail("read a point off the board");
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void snapshotsDoNotFollowTheBoard() {
+        VirtualBoard board = new VirtualBoard();
+        Square[][] before = board.getBoard();
+        Square point = board.getCoord(3, 3);
+        board.placeStone(StoneState.BLACK, 3, 3);
+
+        assertTrue(before[3][3].isEmpty());
+        assertTrue(point.isEmpty());
+        assertEquals(StoneState.BLACK, board.getBoard()[3][3].getColor());
+        assertEquals(StoneState.BLACK, board.getCoord(3, 3).getColor());
+    }
+
+    @Test
+    public void groupIsDeadReadsTheBoard() {
+        VirtualBoard board = VirtualBoard.setUpFromStringBoard(
+                "xo-\n" +
+                "o--\n" +
+                "---\n");
+        Group corner = new Group();
+        corner.addStone(new Square(StoneState.BLACK, 0, 0));
+        assertTrue(corner.isDead(board));
+
+        Group side = new Group();
+        side.addStone(new Square(StoneState.WHITE, 0, 1));
+        assertFalse(side.isDead(board));
+    }
+}
@@ -0,0 +1,177 @@
+package cn.ezandroid.lib.sgf.v2.board;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import cn.ezandroid.lib.sgf.v2.parser.Game;
+import cn.ezandroid.lib.sgf.v2.parser.GameNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks undoMove and redoMove against the undo VirtualBoard had before the
+ * journal, which took the stone off and put back the groups the move removed.
+ */
+public class VirtualBoardUndoTest {
+
+    private static final long SEED = 7;
+    // the most moves taken back at once
+    private static final int MAX_UNDO = 8;
+
+    /**
+     * Keeps its own copy of the position from the events of the board, and
+     * the names of the events since it was last cleared.
+     */
+    private static final class MirrorListener implements BoardListener {
+
+        final StoneState[][] mStones;
+        final List<String> mEvents = new ArrayList<>();
+        GameNode mPlayed;
+
+        MirrorListener(int width, int height) {
+            mStones = new StoneState[width][height];
+            initInitialPosition();
+            mEvents.clear();
+        }
+
+        @Override
+        public void placeStone(int x, int y, StoneState color) {
+            mStones[x][y] = color;
+            mEvents.add("placeStone");
+        }
+
+        @Override
+        public void removeStone(int x, int y) {
+            mStones[x][y] = StoneState.EMPTY;
+            mEvents.add("removeStone");
+        }
+
+        @Override
+        public void playMove(GameNode node, GameNode prevMove) {
+            mPlayed = node;
+            mEvents.add("playMove");
+        }
+
+        @Override
+        public void undoMove(GameNode currentMove, GameNode prevMove) {
+            mPlayed = prevMove;
+            mEvents.add("undoMove");
+        }
+
+        @Override
+        public void initInitialPosition() {
+            for (StoneState[] line : mStones) {
+                Arrays.fill(line, StoneState.EMPTY);
+            }
+            mPlayed = null;
+            mEvents.add("initInitialPosition");
+        }
+
+        void assertSameStones(String message, VirtualBoard board) {
+            for (int x = 0; x < board.getWidth(); x++) {
+                for (int y = 0; y < board.getHeight(); y++) {
+                    assertEquals(message + " listener at " + x + "," + y, board.getColor(x, y), mStones[x][y]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void undoAndRedoMatchTheOldUndo() throws Exception {
+        Random random = new Random(SEED);
+        int undoneCaptures = 0;
+        for (String[] file : BoardTestUtils.GAMES) {
+            Game game = BoardTestUtils.loadGame(file[0], file[1]);
+            List<GameNode> line = BoardTestUtils.mainLine(game);
+            VirtualBoard board = new VirtualBoard(game);
+            FloodFillBoard expected = new FloodFillBoard(board.getWidth(), board.getHeight());
+            MirrorListener listener = new MirrorListener(board.getWidth(), board.getHeight());
+            board.addBoardListener(listener);
+
+            for (int i = 0; i < line.size(); i++) {
+                GameNode node = line.get(i);
+                board.makeMove(node, parent(line, i));
+                expected.makeMove(node);
+                check(file[0] + " move " + i, expected, board, listener);
+
+                // takes back a few moves, never the root, and plays them again
+                int undo = Math.min(i, 1 + random.nextInt(MAX_UNDO));
+                for (int j = i; j > i - undo; j--) {
+                    if (expected.hasCaptured(line.get(j))) {
+                        undoneCaptures++;
+                    }
+                    board.undoMove(line.get(j), parent(line, j));
+                    expected.undoMove(line.get(j));
+                    check(file[0] + " undo " + j, expected, board, listener);
+                    assertSame(parent(line, j), listener.mPlayed);
+                }
+                for (int j = i - undo + 1; j <= i; j++) {
+                    board.redoMove(line.get(j), parent(line, j));
+                    expected.makeMove(line.get(j));
+                    check(file[0] + " redo " + j, expected, board, listener);
+                    assertSame(line.get(j), listener.mPlayed);
+                }
+            }
+        }
+        assertTrue("no captures were taken back", undoneCaptures > 0);
+    }
+
+    @Test
+    public void undoingAMoveFromBeforeTheJournalFastForwards() throws Exception {
+        Game game = BoardTestUtils.loadGame("complex.sgf", "GB2312");
+        List<GameNode> line = BoardTestUtils.mainLine(game);
+        VirtualBoard board = new VirtualBoard(game);
+        board.setKeyframeInterval(1);
+        MirrorListener listener = new MirrorListener(board.getWidth(), board.getHeight());
+        board.addBoardListener(listener);
+
+        FloodFillBoard expected = new FloodFillBoard(board.getWidth(), board.getHeight());
+        for (GameNode node : line) {
+            expected.makeMove(node);
+        }
+
+        // with a keyframe at every node, the journal only has the last move
+        int last = line.size() - 1;
+        board.fastForwardTo(line.get(last - 1));
+        board.fastForwardTo(line.get(last));
+        listener.mEvents.clear();
+        board.undoMove(line.get(last), line.get(last - 1));
+        expected.undoMove(line.get(last));
+        check("undo from the journal", expected, board, listener);
+        assertEquals("undoMove", listener.mEvents.get(listener.mEvents.size() - 1));
+        assertFalse(listener.mEvents.contains("initInitialPosition"));
+
+        listener.mEvents.clear();
+        board.undoMove(line.get(last - 1), line.get(last - 2));
+        expected.undoMove(line.get(last - 1));
+        check("undo by fast forwarding", expected, board, listener);
+        assertEquals("initInitialPosition", listener.mEvents.get(0));
+        assertEquals("playMove", listener.mEvents.get(listener.mEvents.size() - 1));
+        assertFalse(listener.mEvents.contains("undoMove"));
+        assertSame(line.get(last - 2), listener.mPlayed);
+
+        // the fast forward filled the journal again
+        listener.mEvents.clear();
+        board.undoMove(line.get(last - 2), line.get(last - 3));
+        expected.undoMove(line.get(last - 2));
+        check("undo after the fast forward", expected, board, listener);
+        assertFalse(listener.mEvents.contains("initInitialPosition"));
+        assertSame(line.get(last - 3), listener.mPlayed);
+    }
+
+    private static GameNode parent(List<GameNode> line, int i) {
+        return i > 0 ? line.get(i - 1) : null;
+    }
+
+    private static void check(String message, FloodFillBoard expected, VirtualBoard board, MirrorListener listener) {
+        BoardTestUtils.assertSameBoard(message, expected, board);
+        listener.assertSameStones(message, board);
+    }
+}
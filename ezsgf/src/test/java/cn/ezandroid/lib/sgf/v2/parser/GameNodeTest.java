@@ -0,0 +1,89 @@
+package cn.ezandroid.lib.sgf.v2.parser;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import cn.ezandroid.lib.sgf.v2.Sgf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GameNodeTest {
+
+    @Test
+    public void childrenAreTheVariationsInFileOrder() {
+        Game game = Sgf.createFromString("(;GM[1](;B[aa])(;B[bb])(;B[cc])(;B[dd]))");
+        GameNode root = game.getRootNode();
+        assertEquals("aa", root.getNextNode().getMoveString());
+
+        List<GameNode> children = root.getChildren();
+        assertEquals(3, children.size());
+        assertEquals("bb", children.get(0).getMoveString());
+        assertEquals("cc", children.get(1).getMoveString());
+        assertEquals("dd", children.get(2).getMoveString());
+    }
+
+    @Test
+    public void childrenCanOnlyChangeThroughTheNode() {
+        GameNode root = new GameNode(null);
+        GameNode next = new GameNode(root);
+        GameNode first = new GameNode(root);
+        GameNode second = new GameNode(root);
+        root.addChild(next);
+        root.addChild(first);
+        root.addChild(second);
+
+        List<GameNode> children = root.getChildren();
+        try {
+            children.remove(first);
+            fail("the children list can be changed");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            root.getChildren().add(new GameNode(root));
+            fail("the children list can be changed");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        assertFalse(root.removeChild(next));
+        assertSame(next, root.getNextNode());
+        assertTrue(root.removeChild(first));
+        assertEquals(Arrays.asList(second), root.getChildren());
+        assertTrue(root.removeChild(second));
+        assertFalse(root.hasChildren());
+        assertFalse(root.removeChild(second));
+    }
+
+    @Test
+    public void cloneDoesNotShareChildrenOrUpdatedProperties() throws Exception {
+        GameNode node = new GameNode(null);
+        node.addProperty("B", "aa");
+        node.addUpdatedProperty("C", "before");
+        GameNode next = new GameNode(node);
+        GameNode variation = new GameNode(node);
+        node.addChild(next);
+        node.addChild(variation);
+
+        GameNode clone = (GameNode) node.clone();
+        assertSame(next, clone.getNextNode());
+        assertEquals(Arrays.asList(variation), clone.getChildren());
+        assertEquals("before", clone.getUpdatedProperty("C"));
+
+        clone.addChild(new GameNode(clone));
+        clone.removeChild(variation);
+        clone.addUpdatedProperty("C", "after");
+        clone.addProperty("B", "bb");
+
+        assertEquals(Arrays.asList(variation), node.getChildren());
+        assertEquals("before", node.getUpdatedProperty("C"));
+        assertEquals("aa", node.getMoveString());
+        assertEquals(0, node.getMoveX());
+        assertEquals("bb", clone.getMoveString());
+        assertEquals(1, clone.getMoveX());
+    }
+}